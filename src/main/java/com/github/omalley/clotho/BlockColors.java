@@ -0,0 +1,339 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.Minecraft.ID;
+import com.github.omalley.clotho.NBT.Minecraft.Map;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A precomputed table from the raw block id and data value to the map
+ * color, so that finding the color of a block is a single array lookup.
+ * The table is indexed by the block key (id &lt;&lt; 4 | data) that
+ * {@link com.github.omalley.clotho.NBT.Minecraft.Section#getBlockKey(int)}
+ * returns.
+ */
+public class BlockColors {
+  static final int BLOCK_IDS = 4096;
+  static final int DATA_VALUES = 16;
+
+  /**
+   * The base map color for each block key; 0 is transparent.
+   */
+  private final int[] baseColors = new int[BLOCK_IDS * DATA_VALUES];
+
+  /**
+   * The packed RGB value for each map color variant.
+   */
+  private final int[] rgb = new int[Map.MapColors.length];
+
+  /**
+   * Create the default table.
+   */
+  public BlockColors() {
+    for(ID kind: ID.values()) {
+      if (kind.getId() < BLOCK_IDS) {
+        setColor(kind.getId(), getColorByCubeKind(kind));
+      }
+    }
+    for(int i=0; i < rgb.length; ++i) {
+      rgb[i] = Map.MapColors[i].getRGB() & 0xffffff;
+    }
+  }
+
+  /**
+   * Create the default table and override it with the entries from a
+   * palette file.
+   * @param palette the palette file to read
+   * @throws IOException if the file can't be read or parsed
+   */
+  public BlockColors(File palette) throws IOException {
+    this();
+    load(palette);
+  }
+
+  /**
+   * Get the base map color of a block.
+   * @param key the block key (id &lt;&lt; 4 | data)
+   * @return a base map color number, 0 for transparent blocks
+   */
+  public int getBaseColor(int key) {
+    return baseColors[key];
+  }
+
+  /**
+   * Get the packed RGB value of a map color variant.
+   * @param baseColor the base map color number
+   * @param variant the variant 0 to 3
+   * @return the color as 0xRRGGBB
+   */
+  public int getRGB(int baseColor, int variant) {
+    return rgb[baseColor * MapMaker.VARIANTS_PER_COLOR + variant];
+  }
+
+  /**
+   * Get a hash of the whole table, so that cached renders can tell whether
+   * they were made with the same colors.
+   * @return a hash of the colors
+   */
+  public int getSignature() {
+    return 31 * Arrays.hashCode(baseColors) + Arrays.hashCode(rgb);
+  }
+
+  /**
+   * Set the base color for every data value of a block.
+   */
+  void setColor(int id, int color) {
+    for(int data=0; data < DATA_VALUES; ++data) {
+      setColor(id, data, color);
+    }
+  }
+
+  void setColor(int id, int data, int color) {
+    if (id < 0 || id >= BLOCK_IDS || data < 0 || data >= DATA_VALUES) {
+      throw new IllegalArgumentException("Bad block " + id + ":" + data);
+    }
+    if (color < 0 || color * MapMaker.VARIANTS_PER_COLOR >= rgb.length) {
+      throw new IllegalArgumentException("Bad map color " + color);
+    }
+    baseColors[id << 4 | data] = color;
+  }
+
+  /**
+   * Read a palette file. Each line has a block and a base map color
+   * separated by whitespace. The block is either a number or the name of an
+   * {@link ID} and may be followed by ":data" to only change the color for
+   * one data value. Everything after a '#' is a comment.
+   * <pre>
+   *   # color all wool as snow and orange wool as dirt
+   *   WOOL     8
+   *   35:1     10
+   * </pre>
+   * @param palette the file to read
+   * @throws IOException if the file can't be read or parsed
+   */
+  void load(File palette) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(palette), StandardCharsets.UTF_8))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber += 1;
+        int comment = line.indexOf('#');
+        if (comment >= 0) {
+          line = line.substring(0, comment);
+        }
+        line = line.trim();
+        if (line.isEmpty()) {
+          continue;
+        }
+        String[] parts = line.split("\\s+");
+        try {
+          if (parts.length != 2) {
+            throw new IllegalArgumentException("Expected block and color");
+          }
+          String[] block = parts[0].split(":");
+          int id = parseBlock(block[0]);
+          int color = Integer.parseInt(parts[1]);
+          if (block.length == 1) {
+            setColor(id, color);
+          } else {
+            setColor(id, Integer.parseInt(block[1]), color);
+          }
+        } catch (IllegalArgumentException e) {
+          throw new IOException(palette + ":" + lineNumber + ": " +
+              e.getMessage(), e);
+        }
+      }
+    }
+  }
+
+  private static int parseBlock(String block) {
+    if (Character.isDigit(block.charAt(0))) {
+      return Integer.parseInt(block);
+    }
+    return ID.valueOf(block.toUpperCase()).getId();
+  }
+
+  /**
+   * Get the default map color for a given kind of object.
+   * @param kind the kind of object in the location
+   * @return a base map color number
+   */
+  private static int getColorByCubeKind(ID kind) {
+    switch (kind) {
+      case GRASS:
+      case MYCELIUM:
+        return 1;
+
+      case SAND:
+      case GRAVEL:
+      case SOULSAND:
+        return 2;
+
+      case SPONGE:
+      case BED:
+      case COBWEB:
+        return 3;
+
+      case LAVA:
+      case TNT:
+        return 4;
+
+      case ICE:
+      case PACKED_ICE:
+        return 5;
+
+      case IRON_BLOCK:
+      case REDSTONE_BLOCK:
+      case IRON_DOOR:
+      case IRON_BARS:
+      case BREWING_STAND:
+      case CAULDRON:
+        return 6;
+
+      case SAPLING:
+      case LEAVES:
+      case ACACIA_LEAVES:
+      case TALL_GRASS:
+      case DEAD_BUSH:
+      case DANDELION:
+      case ROSE:
+      case BROWN_MUSHROOM:
+      case RED_MUSHROOM:
+      case MELON_SEEDS:
+      case PUMPKIN_SEEDS:
+      case WHEAT_SEEDS:
+      case CACTUS:
+      case SUGARCANE:
+      case PUMPKIN:
+      case JACKOLANTERN:
+      case MELON:
+      case PUMPKIN_STEM:
+      case MELON_STEM:
+      case VINES:
+      case LILY_PAD:
+      case NETHER_WART:
+      case DRAGON_EGG:
+        return 7;
+
+      case SNOW:
+      case SNOW_BLOCK:
+      case QUARTZ_BLOCK:
+        return 8;
+
+      case CLAY:
+      case MONSTER_EGG:
+        return 9;
+
+      case DIRT:
+      case FARMLAND:
+        return 10;
+
+      case STONE:
+      case COBBLESTONE:
+      case BEDROCK:
+      case GOLD_ORE:
+      case IRON_ORE:
+      case COAL_ORE:
+      case COAL_BLOCK:
+      case LAPIS_LAZULI_ORE:
+      case DISPENSER:
+      case SANDSTONE:
+      case STICKY_PISTON:
+      case PISTON:
+      case PISTON_EXTENSION:
+      case PISTON_MOVING:
+      case DOUBLE_SLAB:
+      case SLAB:
+      case BRICKS:
+      case MOSS_STONE:
+      case MONSTER_SPAWNER:
+      case FURNACE:
+      case COBBLESTONE_STAIRS:
+      case STONE_PRESSURE_PLATE:
+      case REDSTONE_ORE:
+      case STONE_BRICKS:
+      case BRICK_STAIRS:
+      case STONE_BRICK_STAIRS:
+      case NETHER_BRICK:
+      case NETHER_BRICK_FENCE:
+      case NETHER_BRICK_STAIRS:
+      case ENCHANTMENT_TABLE:
+      case ENDSTONE:
+        return 11;
+
+      case WATER:
+        return 12;
+
+      case WOODEN_PLANK:
+      case WOOD:
+      case NOTE_BLOCK:
+      case BOOKSHELF:
+      case ACACIA_WOOD_STAIRS:
+      case BIRCH_WOOD_STAIRS:
+      case DARK_OAK_WOOD_STAIRS:
+      case JUNGLE_WOOD_STAIRS:
+      case OAK_WOOD_STAIRS:
+      case SPRUCE_WOOD_STAIRS:
+      case CHEST:
+      case CRAFTING_TABLE:
+      case SIGNPOST:
+      case WOODEN_DOOR:
+      case WALLSIGN:
+      case WOODEN_PRESSURE_PLATE:
+      case JUKEBOX:
+      case FENCE:
+      case LOCKED_CHEST:
+      case TRAPDOOR:
+      case HUGE_BROWN_MUSHROOM:
+      case HUGE_RED_MUSHROOM:
+      case FENCE_GATE:
+        return 13;
+
+      case WOOL:
+      case STAINED_HARDENED_CLAY:
+        return 14;
+
+      case GOLD_BLOCK:
+        return 30;
+
+      case DIAMOND_ORE:
+      case DIAMOND_BLOCK:
+        return 31;
+
+      case LAPIS_LAZULI_BLOCK:
+        return 32;
+
+      case EMERALD_BLOCK:
+        return 33;
+
+      case OBSIDIAN:
+        return 34;
+
+      case NETHERRACK:
+        return 35;
+
+      default:
+        return 0;
+    }
+  }
+}
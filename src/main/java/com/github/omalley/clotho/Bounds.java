@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import static com.github.omalley.clotho.MapMaker.CHUNKS_PER_REGION;
+import static com.github.omalley.clotho.MapMaker.CUBES_PER_CHUNK;
+
+/**
+ * The part of the world to render, either a box or a circle. The bounds
+ * are rounded out to whole chunks, which are in absolute chunk
+ * coordinates and inclusive.
+ */
+class Bounds {
+  final int minX;
+  final int maxX;
+  final int minZ;
+  final int maxZ;
+  /**
+   * The center and radius in blocks of a circle, or radius < 0 for a box.
+   */
+  private final int centerX;
+  private final int centerZ;
+  private final int radius;
+
+  private Bounds(int minX, int maxX, int minZ, int maxZ,
+                 int centerX, int centerZ, int radius) {
+    if (minX > maxX || minZ > maxZ) {
+      throw new IllegalArgumentException("Empty bounds");
+    }
+    this.minX = minX;
+    this.maxX = maxX;
+    this.minZ = minZ;
+    this.maxZ = maxZ;
+    this.centerX = centerX;
+    this.centerZ = centerZ;
+    this.radius = radius;
+  }
+
+  /**
+   * Round a block coordinate down to its chunk, including for negative
+   * coordinates.
+   */
+  static int floorDiv(int value, int divisor) {
+    return value >= 0 ? value / divisor : -((-value - 1) / divisor) - 1;
+  }
+
+  /**
+   * The bounds covering a rectangle of whole regions.
+   */
+  static Bounds ofRegions(int minX, int maxX, int minZ, int maxZ) {
+    return new Bounds(minX * CHUNKS_PER_REGION,
+        maxX * CHUNKS_PER_REGION + CHUNKS_PER_REGION - 1,
+        minZ * CHUNKS_PER_REGION,
+        maxZ * CHUNKS_PER_REGION + CHUNKS_PER_REGION - 1, 0, 0, -1);
+  }
+
+  /**
+   * The bounds covering a box of blocks.
+   * @param box the box as "x1,z1,x2,z2" in block coordinates
+   */
+  static Bounds parseBox(String box) {
+    int[] values = parse(box, 4, "x1,z1,x2,z2");
+    return new Bounds(
+        floorDiv(Math.min(values[0], values[2]), CUBES_PER_CHUNK),
+        floorDiv(Math.max(values[0], values[2]), CUBES_PER_CHUNK),
+        floorDiv(Math.min(values[1], values[3]), CUBES_PER_CHUNK),
+        floorDiv(Math.max(values[1], values[3]), CUBES_PER_CHUNK),
+        0, 0, -1);
+  }
+
+  /**
+   * The bounds covering a circle of blocks.
+   * @param center the center as "x,z" in block coordinates
+   * @param radius the radius in blocks
+   */
+  static Bounds parseCircle(String center, int radius) {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Negative radius " + radius);
+    }
+    int[] values = parse(center, 2, "x,z");
+    return new Bounds(floorDiv(values[0] - radius, CUBES_PER_CHUNK),
+        floorDiv(values[0] + radius, CUBES_PER_CHUNK),
+        floorDiv(values[1] - radius, CUBES_PER_CHUNK),
+        floorDiv(values[1] + radius, CUBES_PER_CHUNK),
+        values[0], values[1], radius);
+  }
+
+  private static int[] parse(String value, int count, String pattern) {
+    String[] parts = value.split(",");
+    if (parts.length != count) {
+      throw new IllegalArgumentException("Expected " + pattern +
+          " instead of " + value);
+    }
+    int[] result = new int[count];
+    for(int i=0; i < count; ++i) {
+      result[i] = Integer.parseInt(parts[i].trim());
+    }
+    return result;
+  }
+
+  /**
+   * The number of chunks across.
+   */
+  int getWidth() {
+    return maxX - minX + 1;
+  }
+
+  /**
+   * The number of chunks down.
+   */
+  int getHeight() {
+    return maxZ - minZ + 1;
+  }
+
+  /**
+   * Does the region have any chunks in the bounds?
+   * @param x the region's x coordinate
+   * @param z the region's z coordinate
+   */
+  boolean containsRegion(int x, int z) {
+    return x * CHUNKS_PER_REGION <= maxX &&
+        (x + 1) * CHUNKS_PER_REGION > minX &&
+        z * CHUNKS_PER_REGION <= maxZ &&
+        (z + 1) * CHUNKS_PER_REGION > minZ;
+  }
+
+  /**
+   * Does the chunk have any blocks in the bounds?
+   * @param x the chunk's absolute x coordinate
+   * @param z the chunk's absolute z coordinate
+   */
+  boolean containsChunk(int x, int z) {
+    if (x < minX || x > maxX || z < minZ || z > maxZ) {
+      return false;
+    }
+    if (radius < 0) {
+      return true;
+    }
+    // find the distance from the center to the closest block of the chunk
+    long dx = Math.max(0, Math.max(x * CUBES_PER_CHUNK - centerX,
+        centerX - (x * CUBES_PER_CHUNK + CUBES_PER_CHUNK - 1)));
+    long dz = Math.max(0, Math.max(z * CUBES_PER_CHUNK - centerZ,
+        centerZ - (z * CUBES_PER_CHUNK + CUBES_PER_CHUNK - 1)));
+    return dx * dx + dz * dz <= (long) radius * radius;
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.FormatException;
+import com.github.omalley.clotho.NBT.Minecraft.Chunk;
+import com.github.omalley.clotho.NBT.Minecraft.Section;
+
+import java.util.Arrays;
+
+import static com.github.omalley.clotho.MapMaker.CUBES_PER_CHUNK;
+import static com.github.omalley.clotho.MapMaker.CUBES_PER_SECTION;
+import static com.github.omalley.clotho.MapMaker.SECTIONS_PER_CHUNK;
+
+/**
+ * One decode of a chunk that all of the render layers share: its sections
+ * and the top most colored block of each column. It is reused from chunk
+ * to chunk, so each worker thread needs its own.
+ */
+class ChunkSurface {
+  static final int COLUMNS = CUBES_PER_CHUNK * CUBES_PER_CHUNK;
+  static final int BLOCKS_PER_SECTION = COLUMNS * CUBES_PER_SECTION;
+
+  final BlockColors blockColors;
+  /**
+   * The chunk's sections by their vertical position; null if missing.
+   */
+  final Section[] sections = new Section[SECTIONS_PER_CHUNK];
+  /**
+   * The base map color of the top colored block in each column indexed by
+   * z * 16 + x; 0 if the column has no colored blocks.
+   */
+  final int[] baseColors = new int[COLUMNS];
+  /**
+   * The height of the top colored block in each column; -1 if none.
+   */
+  final int[] heights = new int[COLUMNS];
+  Chunk chunk;
+  /**
+   * The height to look down from for a chunk with a roof; -1 if none.
+   */
+  private final int ceiling;
+
+  ChunkSurface(BlockColors blockColors) {
+    this(blockColors, -1);
+  }
+
+  /**
+   * @param ceiling the height to look down for the surface from below a roof
+   *                or -1 to use the top most colored block
+   */
+  ChunkSurface(BlockColors blockColors, int ceiling) {
+    this.blockColors = blockColors;
+    this.ceiling = ceiling;
+  }
+
+  /**
+   * Decode a chunk and find the top colored block in each column.
+   */
+  void scan(Chunk chunk) throws FormatException {
+    this.chunk = chunk;
+    for(int y=0; y < SECTIONS_PER_CHUNK; ++y) {
+      sections[y] = chunk.getSection(y);
+    }
+    Arrays.fill(baseColors, 0);
+    Arrays.fill(heights, -1);
+    if (ceiling >= 0) {
+      fillBelowCeiling();
+      return;
+    }
+    int remaining = COLUMNS;
+    for(int section=SECTIONS_PER_CHUNK - 1; section >= 0 && remaining > 0;
+        --section) {
+      if (sections[section] != null) {
+        remaining -= fillInSection(sections[section], section);
+      }
+    }
+  }
+
+  /**
+   * Take the heights from the chunk's HeightMap without decoding its
+   * sections, which is all that a preview needs. The columns don't get a
+   * base color.
+   */
+  void scanHeightMap(Chunk chunk) {
+    this.chunk = chunk;
+    Arrays.fill(sections, null);
+    Arrays.fill(baseColors, 0);
+    int[] heightMap = chunk.getHeightMap();
+    for(int column=0; column < COLUMNS; ++column) {
+      // the height map has the first block above the top non-clear block
+      heights[column] = heightMap == null || column >= heightMap.length ? -1 :
+          Math.min(heightMap[column], 256) - 1;
+    }
+  }
+
+  /**
+   * Find the top colored block under the roof in each column. Starting at
+   * the ceiling, skip down through the roof to the first clear block and
+   * take the next colored block below it. Columns that are solid all of the
+   * way down stay empty.
+   */
+  private void fillBelowCeiling() {
+    for(int column=0; column < COLUMNS; ++column) {
+      boolean open = false;
+      for(int y=ceiling; y >= 0; --y) {
+        int color = blockColors.getBaseColor(getBlockKey(column, y));
+        if (color == 0) {
+          open = true;
+        } else if (open) {
+          baseColors[column] = color;
+          heights[column] = y;
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Fill in the columns that don't have a color yet from the top most
+   * colored block in this section.
+   * @param section the section to look at
+   * @param sectionId the vertical position of the section
+   * @return the number of columns that were filled in
+   */
+  private int fillInSection(Section section, int sectionId) {
+    int result = 0;
+    for(int column=0; column < COLUMNS; ++column) {
+      if (heights[column] < 0) {
+        for(int y=CUBES_PER_SECTION - 1; y >= 0; --y) {
+          int color = blockColors.getBaseColor(
+              section.getBlockKey(y * COLUMNS + column));
+          if (color != 0) {
+            result += 1;
+            baseColors[column] = color;
+            heights[column] = sectionId * CUBES_PER_SECTION + y;
+            break;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the block key (id &lt;&lt; 4 | data) of a block; 0 (air) for
+   * missing sections.
+   * @param column the column indexed by z * 16 + x
+   * @param y the height from 0 to 255
+   */
+  int getBlockKey(int column, int y) {
+    Section section = sections[y / CUBES_PER_SECTION];
+    return section == null ? 0 :
+        section.getBlockKey((y % CUBES_PER_SECTION) * COLUMNS + column);
+  }
+
+  /**
+   * Get the light from torches and other blocks; 0 for missing sections.
+   */
+  int getBlockLight(int column, int y) {
+    Section section = sections[y / CUBES_PER_SECTION];
+    return section == null ? 0 :
+        section.getBlockLight((y % CUBES_PER_SECTION) * COLUMNS + column);
+  }
+
+  /**
+   * Get the light from the sky; 15 for missing sections, which are open to
+   * the sky.
+   */
+  int getSkyLight(int column, int y) {
+    Section section = sections[y / CUBES_PER_SECTION];
+    return section == null ? 15 :
+        section.getSkyLight((y % CUBES_PER_SECTION) * COLUMNS + column);
+  }
+}
@@ -26,13 +26,44 @@ public class Driver {
       if ("level".equals(args[0])) {
         DumpLevel.main(tail(args));
         return;
+      } else if ("dump-chunks".equals(args[0])) {
+        DumpChunks.main(tail(args));
+        return;
+      } else if ("import-level".equals(args[0])) {
+        ImportLevel.main(tail(args));
+        return;
+      } else if ("import-chunks".equals(args[0])) {
+        ImportChunks.main(tail(args));
+        return;
       } else if ("map".equals(args[0])) {
         MapMaker.main(tail(args));
         return;
+      } else if ("iso".equals(args[0])) {
+        IsometricRenderer.main(tail(args));
+        return;
+      } else if ("items".equals(args[0])) {
+        MapItems.main(tail(args));
+        return;
+      } else if ("atlas".equals(args[0])) {
+        MapAtlas.main(tail(args));
+        return;
       }
     }
-    System.out.println("Usage: java -jar clotho.jar (level|map) [option]*");
-    System.out.println("  level - print the information about the save game");
-    System.out.println("  map   - create a map of the save game");
+    System.out.println("Usage: java -jar clotho.jar " +
+        "(level|dump-chunks|import-level|import-chunks|map|iso|items|atlas) " +
+        "[option]*");
+    System.out.println("  level         - print the information about " +
+        "the save game");
+    System.out.println("  dump-chunks   - print every chunk as JSON Lines");
+    System.out.println("  import-level  - write the level file from " +
+        "typed JSON");
+    System.out.println("  import-chunks - write chunks from typed JSON Lines");
+    System.out.println("  map           - create a map of the save game");
+    System.out.println("  iso           - create isometric tiles of the " +
+        "save game");
+    System.out.println("  items         - create in-game map items of the " +
+        "save game");
+    System.out.println("  atlas         - stitch the save game's map items " +
+        "into tiles");
   }
 }
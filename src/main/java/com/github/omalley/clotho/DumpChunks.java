@@ -0,0 +1,300 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.IO;
+import com.github.omalley.clotho.NBT.Minecraft.Region;
+import com.github.omalley.clotho.NBT.ArrayEncoding;
+import com.github.omalley.clotho.NBT.FormatException;
+import com.google.gson.stream.JsonWriter;
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.github.omalley.clotho.MapMaker.CHUNKS_PER_REGION;
+
+/**
+ * Print every chunk of a save game as JSON Lines, one object per chunk:
+ * <pre>
+ *   {"region":"r.0.0.mca","x":0,"z":0,"timestamp":1234,"data":{...}}
+ * </pre>
+ * The region files are read in order of z and then x on the calling
+ * thread, while the pool decodes each row of chunks straight from the
+ * compressed NBT into JSON without building the tags. The rows are written
+ * in the order they were read, so the output is the same whatever the
+ * number of threads. With several shards, each region goes to one shard
+ * in turn.
+ */
+public class DumpChunks {
+  /**
+   * The rows of chunks that may be decoded ahead of the writer for each
+   * thread, which bounds the memory used for finished rows.
+   */
+  static final int ROWS_PER_THREAD = 4;
+
+  /**
+   * A row of chunks that is being decoded.
+   */
+  private static final class Row {
+    final OutputStream shard;
+    final Future<byte[]> lines;
+
+    Row(OutputStream shard, Future<byte[]> lines) {
+      this.shard = shard;
+      this.lines = lines;
+    }
+  }
+
+  private final ExecutorService pool;
+  private final boolean typed;
+  private final ArrayEncoding arrays;
+  private final List<OutputStream> shards;
+  private final int window;
+  private final ArrayDeque<Row> pending = new ArrayDeque<Row>();
+  private int regions = 0;
+  long chunks = 0;
+
+  DumpChunks(ExecutorService pool, int threads, boolean typed,
+             ArrayEncoding arrays, List<OutputStream> shards) {
+    this.pool = pool;
+    this.typed = typed;
+    this.arrays = arrays;
+    this.shards = shards;
+    this.window = threads * ROWS_PER_THREAD;
+  }
+
+  /**
+   * Read a region and queue its rows of chunks to be decoded.
+   */
+  void dumpRegion(final MapMaker.RegionFile file) throws Exception {
+    Region region = new Region(file.filename);
+    final int[] timestamps = region.ReadTimestamps();
+    boolean[] wanted = new boolean[CHUNKS_PER_REGION * CHUNKS_PER_REGION];
+    Arrays.fill(wanted, true);
+    final byte[][] raw = region.ReadRawChunks(wanted);
+    OutputStream shard = shards.get(regions % shards.size());
+    regions += 1;
+    for(int z=0; z < CHUNKS_PER_REGION; ++z) {
+      final int row = z;
+      Future<byte[]> lines = pool.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws Exception {
+          return dumpRow(file, row, timestamps, raw);
+        }
+      });
+      pending.add(new Row(shard, lines));
+      while (pending.size() > window) {
+        writeRow();
+      }
+    }
+  }
+
+  /**
+   * Decode a row of chunks into JSON lines.
+   */
+  private byte[] dumpRow(MapMaker.RegionFile file, int z, int[] timestamps,
+                         byte[][] raw) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    Writer out = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+    String name = file.filename.getName();
+    for(int x=0; x < CHUNKS_PER_REGION; ++x) {
+      int index = z * CHUNKS_PER_REGION + x;
+      InputStream nbt = raw[index] == null ? null :
+          Region.OpenRawChunk(raw[index]);
+      if (nbt == null) {
+        continue;
+      }
+      // each line is its own JSON document
+      JsonWriter writer = new JsonWriter(out);
+      writer.beginObject();
+      writer.name("region").value(name);
+      writer.name("x").value(file.x * CHUNKS_PER_REGION + x);
+      writer.name("z").value(file.z * CHUNKS_PER_REGION + z);
+      writer.name("timestamp").value(timestamps[index]);
+      writer.name("data");
+      try (InputStream in = new BufferedInputStream(nbt)) {
+        IO.TranscodeJson(in, writer, typed, arrays);
+      } catch (FormatException e) {
+        throw new IOException("Bad chunk " + x + "," + z + " in " + name, e);
+      }
+      writer.endObject();
+      writer.flush();
+      out.write('\n');
+    }
+    out.flush();
+    return buffer.toByteArray();
+  }
+
+  /**
+   * Wait for the oldest row and write it to its shard.
+   */
+  private void writeRow() throws Exception {
+    Row row = pending.remove();
+    byte[] lines;
+    try {
+      lines = row.lines.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+    for(int i=0; i < lines.length; ++i) {
+      if (lines[i] == '\n') {
+        chunks += 1;
+      }
+    }
+    row.shard.write(lines);
+  }
+
+  /**
+   * Write the rows that are still being decoded.
+   */
+  void finish() throws Exception {
+    while (!pending.isEmpty()) {
+      writeRow();
+    }
+    for(OutputStream shard: shards) {
+      shard.flush();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    JSAP jsap = new JSAP();
+    jsap.registerParameter(new Switch("typed", 't', "typed",
+        "annotate each object with its type"));
+    jsap.registerParameter(new FlaggedOption("arrays", JSAP.STRING_PARSER,
+        "hex", false, 'a', "arrays",
+        "how to write byte and int arrays: hex, base64, rle, or summary, " +
+        "and omit:n to leave out arrays over n bytes, such as " +
+        "base64,omit:4096"));
+    jsap.registerParameter(new Switch("help", 'h', "help",
+        "provide help"));
+    jsap.registerParameter(new FlaggedOption("threads", JSAP.INTEGER_PARSER,
+        Integer.toString(Runtime.getRuntime().availableProcessors()), false,
+        'T', "threads", "number of threads to decode chunks with"));
+    jsap.registerParameter(new FlaggedOption("output", JSAP.STRING_PARSER,
+        null, false, 'o', "output",
+        "directory to write chunks-N.jsonl shards to instead of stdout"));
+    jsap.registerParameter(new FlaggedOption("shards", JSAP.INTEGER_PARSER,
+        "1", false, 'n', "shards", "number of files to split the output into"));
+    jsap.registerParameter(new UnflaggedOption("directory", JSAP.STRING_PARSER,
+        null, true, true, "list of save directories"));
+    JSAPResult options = jsap.parse(args);
+    if (options.getInt("threads", 1) < 1) {
+      options.addException("threads",
+          new IllegalArgumentException("--threads must be at least 1"));
+    }
+    if (options.getInt("shards", 1) < 1) {
+      options.addException("shards",
+          new IllegalArgumentException("--shards must be at least 1"));
+    } else if (options.getInt("shards", 1) > 1 && !options.contains("output")) {
+      options.addException("shards",
+          new IllegalArgumentException("--shards needs --output"));
+    }
+    ArrayEncoding arrays = null;
+    if (options.success()) {
+      try {
+        arrays = ArrayEncoding.parse(options.getString("arrays"));
+      } catch (IllegalArgumentException e) {
+        options.addException("arrays", e);
+      }
+    }
+
+    if (options.success() && !options.getBoolean("help")) {
+      int threads = options.getInt("threads");
+      List<OutputStream> shards = new ArrayList<OutputStream>();
+      if (options.contains("output")) {
+        File dir = new File(options.getString("output"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+          throw new IOException("Can't create directory " + dir);
+        }
+        for(int i=0; i < options.getInt("shards"); ++i) {
+          shards.add(new BufferedOutputStream(new FileOutputStream(
+              new File(dir, "chunks-" + i + ".jsonl"))));
+        }
+      } else {
+        shards.add(new BufferedOutputStream(System.out));
+      }
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+        DumpChunks dumper = new DumpChunks(pool, threads,
+            options.getBoolean("typed"), arrays, shards);
+        for(String arg: options.getStringArray("directory")) {
+          File[] files = new File(arg, "region").listFiles();
+          if (files == null) {
+            System.err.println("No regions in " + arg);
+            continue;
+          }
+          List<MapMaker.RegionFile> regions =
+              new MapMaker.RegionList(null, files).filenames;
+          Collections.sort(regions, new Comparator<MapMaker.RegionFile>() {
+            @Override
+            public int compare(MapMaker.RegionFile left,
+                               MapMaker.RegionFile right) {
+              return left.z != right.z ? Integer.compare(left.z, right.z) :
+                  Integer.compare(left.x, right.x);
+            }
+          });
+          for(MapMaker.RegionFile region: regions) {
+            dumper.dumpRegion(region);
+          }
+        }
+        dumper.finish();
+        System.err.println("Wrote " + dumper.chunks + " chunks");
+      } finally {
+        pool.shutdownNow();
+        if (options.contains("output")) {
+          for(OutputStream shard: shards) {
+            shard.close();
+          }
+        }
+      }
+    } else {
+      for(Iterator errs = options.getErrorMessageIterator(); errs.hasNext(); ) {
+        System.err.println("Error: " + errs.next());
+      }
+      System.err.println("Usage: dump-chunks " + jsap.getUsage());
+      System.err.println();
+      System.err.println(jsap.getHelp());
+      System.exit(1);
+    }
+  }
+}
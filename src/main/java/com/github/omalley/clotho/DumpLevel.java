@@ -13,9 +13,11 @@
  */
 package com.github.omalley.clotho;
 
+import com.github.omalley.clotho.NBT.ArrayEncoding;
 import com.github.omalley.clotho.NBT.IO;
 import com.github.omalley.clotho.NBT.Tag;
 import com.google.gson.stream.JsonWriter;
+import com.martiansoftware.jsap.FlaggedOption;
 import com.martiansoftware.jsap.JSAP;
 import com.martiansoftware.jsap.JSAPResult;
 import com.martiansoftware.jsap.Switch;
@@ -37,12 +39,25 @@ public class DumpLevel {
     String HOME = System.getProperty("user.home");
     jsap.registerParameter(new Switch("typed", 't', "typed",
         "annotate each object with its type"));
+    jsap.registerParameter(new FlaggedOption("arrays", JSAP.STRING_PARSER,
+        "hex", false, 'a', "arrays",
+        "how to write byte and int arrays: hex, base64, rle, or summary, " +
+        "and omit:n to leave out arrays over n bytes, such as " +
+        "base64,omit:4096"));
     jsap.registerParameter(new Switch("help", 'h', "help",
         "provide help"));
     jsap.registerParameter(new UnflaggedOption("directory", JSAP.STRING_PARSER,
         HOME + "/Library/Application Support/minecraft/saves/Creative", true,
         true, "list of save directories"));
     JSAPResult options = jsap.parse(args);
+    ArrayEncoding arrays = null;
+    if (options.success()) {
+      try {
+        arrays = ArrayEncoding.parse(options.getString("arrays"));
+      } catch (IllegalArgumentException e) {
+        options.addException("arrays", e);
+      }
+    }
 
     if (options.success() && !options.getBoolean("help")) {
       for (String arg : options.getStringArray("directory")) {
@@ -51,7 +66,7 @@ public class DumpLevel {
           Tag.Compound level = IO.Read(fis);
           JsonWriter writer = new JsonWriter(new PrintWriter(System.out));
           writer.setIndent("  ");
-          level.writeJson(writer, options.getBoolean("typed"));
+          level.writeJson(writer, options.getBoolean("typed"), arrays);
           writer.flush();
         }
         System.out.println();
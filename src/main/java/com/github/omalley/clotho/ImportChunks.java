@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.ArrayEncoding;
+import com.github.omalley.clotho.NBT.FormatException;
+import com.github.omalley.clotho.NBT.IO;
+import com.github.omalley.clotho.NBT.Minecraft.Region;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static com.github.omalley.clotho.MapMaker.CHUNKS_PER_REGION;
+
+/**
+ * Write the chunks from typed JSON Lines, as printed by "dump-chunks
+ * --typed", back into a save game's region files. Each chunk is converted
+ * straight from the JSON into compressed NBT as it is read, and only the
+ * chunks of one region are held at a time, so dumps of any size can be
+ * imported. The chunks of each region are written in one pass that also
+ * keeps the region's chunks that aren't in the dump.
+ */
+public class ImportChunks {
+  private static final int CHUNKS = CHUNKS_PER_REGION * CHUNKS_PER_REGION;
+
+  private final File regionDir;
+  private final ArrayEncoding arrays;
+  private final byte[][] raw = new byte[CHUNKS][];
+  private final int[] timestamps = new int[CHUNKS];
+  private final boolean[] imported = new boolean[CHUNKS];
+  private boolean haveRegion = false;
+  private int regionX;
+  private int regionZ;
+  long chunks = 0;
+  long regions = 0;
+
+  ImportChunks(File regionDir, ArrayEncoding arrays) {
+    this.regionDir = regionDir;
+    this.arrays = arrays;
+  }
+
+  /**
+   * Import each of the chunks in a stream of JSON Lines.
+   */
+  void importLines(InputStream in, String name) throws IOException {
+    JsonReader reader = new JsonReader(new InputStreamReader(
+        new BufferedInputStream(in), StandardCharsets.UTF_8));
+    // lenient allows a series of documents rather than just one
+    reader.setLenient(true);
+    try {
+      while (reader.peek() != JsonToken.END_DOCUMENT) {
+        importChunk(reader);
+      }
+    } catch (FormatException | IllegalStateException |
+        NumberFormatException e) {
+      throw new IOException("Bad chunk in " + name + " at " + reader, e);
+    }
+  }
+
+  /**
+   * Import one line, which may have its fields in any order.
+   */
+  private void importChunk(JsonReader reader) throws IOException,
+      FormatException {
+    Integer x = null;
+    Integer z = null;
+    int timestamp = 0;
+    byte[] chunk = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String field = reader.nextName();
+      if ("x".equals(field)) {
+        x = reader.nextInt();
+      } else if ("z".equals(field)) {
+        z = reader.nextInt();
+      } else if ("timestamp".equals(field)) {
+        timestamp = reader.nextInt();
+      } else if ("data".equals(field)) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (OutputStream out = new BufferedOutputStream(
+                 Region.CreateRawChunk(buffer))) {
+          IO.ImportJson(reader, out, arrays);
+        }
+        chunk = buffer.toByteArray();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (x == null || z == null || chunk == null) {
+      throw new FormatException("Chunk needs x, z, and data");
+    }
+    int chunkRegionX = Bounds.floorDiv(x, CHUNKS_PER_REGION);
+    int chunkRegionZ = Bounds.floorDiv(z, CHUNKS_PER_REGION);
+    if (haveRegion && (chunkRegionX != regionX || chunkRegionZ != regionZ)) {
+      finish();
+    }
+    haveRegion = true;
+    regionX = chunkRegionX;
+    regionZ = chunkRegionZ;
+    int index = (z - regionZ * CHUNKS_PER_REGION) * CHUNKS_PER_REGION +
+        x - regionX * CHUNKS_PER_REGION;
+    raw[index] = chunk;
+    timestamps[index] = timestamp;
+    imported[index] = true;
+    chunks += 1;
+  }
+
+  /**
+   * Write the current region, keeping the chunks that weren't imported.
+   */
+  void finish() throws IOException {
+    if (!haveRegion) {
+      return;
+    }
+    Region region = new Region(new File(regionDir,
+        "r." + regionX + "." + regionZ + ".mca"));
+    boolean[] kept = new boolean[CHUNKS];
+    for(int i=0; i < CHUNKS; ++i) {
+      kept[i] = !imported[i];
+    }
+    byte[][] old = region.ReadRawChunks(kept);
+    int[] oldTimestamps = region.ReadTimestamps();
+    for(int i=0; i < CHUNKS; ++i) {
+      if (kept[i]) {
+        raw[i] = old[i];
+        timestamps[i] = oldTimestamps[i];
+      }
+    }
+    region.WriteRawChunks(raw, timestamps);
+    regions += 1;
+    Arrays.fill(raw, null);
+    Arrays.fill(imported, false);
+    haveRegion = false;
+  }
+
+  public static void main(String[] args) throws Exception {
+    JSAP jsap = new JSAP();
+    jsap.registerParameter(new FlaggedOption("arrays", JSAP.STRING_PARSER,
+        "hex", false, 'a', "arrays",
+        "how the byte and int arrays were written: hex, base64, or rle"));
+    jsap.registerParameter(new Switch("help", 'h', "help",
+        "provide help"));
+    jsap.registerParameter(new UnflaggedOption("save", JSAP.STRING_PARSER,
+        null, true, false, "save directory to write the chunks into"));
+    jsap.registerParameter(new UnflaggedOption("input", JSAP.STRING_PARSER,
+        "-", false, true, "JSON Lines files to read or - for stdin"));
+    JSAPResult options = jsap.parse(args);
+    ArrayEncoding arrays = null;
+    if (options.success()) {
+      try {
+        arrays = ArrayEncoding.parse(options.getString("arrays"));
+      } catch (IllegalArgumentException e) {
+        options.addException("arrays", e);
+      }
+    }
+
+    if (options.success() && !options.getBoolean("help")) {
+      File regionDir = new File(options.getString("save"), "region");
+      if (!regionDir.isDirectory() && !regionDir.mkdirs()) {
+        throw new IOException("Can't create directory " + regionDir);
+      }
+      ImportChunks importer = new ImportChunks(regionDir, arrays);
+      for(String input: options.getStringArray("input")) {
+        if ("-".equals(input)) {
+          importer.importLines(System.in, "stdin");
+        } else {
+          try (InputStream in = new FileInputStream(input)) {
+            importer.importLines(in, input);
+          }
+        }
+      }
+      importer.finish();
+      System.err.println("Wrote " + importer.chunks + " chunks to " +
+          importer.regions + " regions");
+    } else {
+      for(Iterator errs = options.getErrorMessageIterator(); errs.hasNext(); ) {
+        System.err.println("Error: " + errs.next());
+      }
+      System.err.println("Usage: import-chunks " + jsap.getUsage());
+      System.err.println();
+      System.err.println(jsap.getHelp());
+      System.exit(1);
+    }
+  }
+}
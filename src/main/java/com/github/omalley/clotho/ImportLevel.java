@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.ArrayEncoding;
+import com.github.omalley.clotho.NBT.IO;
+import com.google.gson.stream.JsonReader;
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Write a save game's level file from the typed JSON that "level --typed"
+ * prints.
+ */
+public class ImportLevel {
+
+  public static void main(String[] args) throws Exception {
+    JSAP jsap = new JSAP();
+    jsap.registerParameter(new FlaggedOption("arrays", JSAP.STRING_PARSER,
+        "hex", false, 'a', "arrays",
+        "how the byte and int arrays were written: hex, base64, or rle"));
+    jsap.registerParameter(new Switch("help", 'h', "help",
+        "provide help"));
+    jsap.registerParameter(new UnflaggedOption("save", JSAP.STRING_PARSER,
+        null, true, false, "save directory to write level.dat into"));
+    jsap.registerParameter(new UnflaggedOption("input", JSAP.STRING_PARSER,
+        "-", false, false, "JSON file to read or - for stdin"));
+    JSAPResult options = jsap.parse(args);
+    ArrayEncoding arrays = null;
+    if (options.success()) {
+      try {
+        arrays = ArrayEncoding.parse(options.getString("arrays"));
+      } catch (IllegalArgumentException e) {
+        options.addException("arrays", e);
+      }
+    }
+
+    if (options.success() && !options.getBoolean("help")) {
+      String input = options.getString("input");
+      File level = new File(options.getString("save"), "level.dat");
+      // only replace the level file once the whole document has been read
+      File temp = new File(level.getPath() + ".tmp");
+      try (InputStream in = "-".equals(input) ? System.in :
+               new FileInputStream(input);
+           GZIPOutputStream out = new GZIPOutputStream(
+               new FileOutputStream(temp))) {
+        JsonReader reader = new JsonReader(new InputStreamReader(in,
+            StandardCharsets.UTF_8));
+        IO.ImportJson(reader, new BufferedOutputStream(out), arrays);
+      } catch (Exception e) {
+        temp.delete();
+        throw e;
+      }
+      Files.move(temp.toPath(), level.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    } else {
+      for(Iterator errs = options.getErrorMessageIterator(); errs.hasNext(); ) {
+        System.err.println("Error: " + errs.next());
+      }
+      System.err.println("Usage: import-level " + jsap.getUsage());
+      System.err.println();
+      System.err.println(jsap.getHelp());
+      System.exit(1);
+    }
+  }
+}
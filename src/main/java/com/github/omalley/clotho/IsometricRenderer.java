@@ -0,0 +1,365 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.FormatException;
+import com.github.omalley.clotho.NBT.Minecraft.Chunk;
+import com.github.omalley.clotho.NBT.Minecraft.Level;
+import com.github.omalley.clotho.NBT.Minecraft.Region;
+import com.github.omalley.clotho.NBT.Minecraft.Section;
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.omalley.clotho.MapMaker.CHUNKS_PER_REGION;
+import static com.github.omalley.clotho.MapMaker.CUBES_PER_CHUNK;
+import static com.github.omalley.clotho.MapMaker.CUBES_PER_SECTION;
+import static com.github.omalley.clotho.MapMaker.SECTIONS_PER_CHUNK;
+
+/**
+ * Draws the world as seen from above the south east corner. Each block is
+ * a 4x4 pixel sprite with its top in the upper half and its south and east
+ * faces side by side in the lower half, so a block at (x, y, z) lands at
+ * (2 * (x - z), x + z - 2 * y) on the screen.
+ *
+ * Each region is drawn into its own transparent r.x.z.png tile by one of
+ * the pool's threads. A region's tile belongs at
+ * (1024 * (x - z), 512 * (x + z)) in a picture of the whole world, and the
+ * tiles overlap, so they should be laid on top of each other in order of
+ * z and then x.
+ */
+public class IsometricRenderer {
+  static final int SPRITE_SIZE = 4;
+  static final int HEIGHT = SECTIONS_PER_CHUNK * CUBES_PER_SECTION;
+  static final int BLOCKS_PER_CHUNK = HEIGHT * ChunkSurface.COLUMNS;
+  static final int CUBES_PER_REGION = CHUNKS_PER_REGION * CUBES_PER_CHUNK;
+  static final int TILE_WIDTH = 4 * CUBES_PER_REGION;
+  static final int TILE_HEIGHT = 2 * CUBES_PER_REGION + 2 * HEIGHT;
+  /**
+   * The screen position of the region's north west corner at the bottom of
+   * the world.
+   */
+  static final int ORIGIN_X = 2 * (CUBES_PER_REGION - 1);
+  static final int ORIGIN_Y = 2 * (HEIGHT - 1);
+  private static final int OPAQUE = 0xff000000;
+  private static final int TOP_VARIANT = 2;
+  private static final int SOUTH_VARIANT = 1;
+  private static final int EAST_VARIANT = 0;
+
+  private final BlockColors blockColors;
+  private final Bounds bounds;
+  /**
+   * The base map color of each block in the current chunk indexed by
+   * y * 256 + z * 16 + x; 0 for clear blocks.
+   */
+  private final int[] colors = new int[BLOCKS_PER_CHUNK];
+  long blocks = 0;
+  long culled = 0;
+  long chunks = 0;
+
+  IsometricRenderer(BlockColors blockColors, Bounds bounds) {
+    this.blockColors = blockColors;
+    this.bounds = bounds;
+  }
+
+  /**
+   * Draw a region. The chunks are drawn from the back (north west) to the
+   * front, so that the nearer blocks paint over the ones behind them.
+   * @param file the region to draw
+   * @return the region's tile
+   */
+  BufferedImage drawRegion(MapMaker.RegionFile file)
+      throws IOException, FormatException {
+    BufferedImage image = new BufferedImage(TILE_WIDTH, TILE_HEIGHT,
+        BufferedImage.TYPE_INT_ARGB);
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+        .getData();
+    boolean[] wanted = new boolean[CHUNKS_PER_REGION * CHUNKS_PER_REGION];
+    for(int z=0; z < CHUNKS_PER_REGION; ++z) {
+      for(int x=0; x < CHUNKS_PER_REGION; ++x) {
+        wanted[z * CHUNKS_PER_REGION + x] = bounds.containsChunk(
+            file.x * CHUNKS_PER_REGION + x, file.z * CHUNKS_PER_REGION + z);
+      }
+    }
+    byte[][] raw = new Region(file.filename).ReadRawChunks(wanted);
+    for(int z=0; z < CHUNKS_PER_REGION; ++z) {
+      for(int x=0; x < CHUNKS_PER_REGION; ++x) {
+        byte[] compressed = raw[z * CHUNKS_PER_REGION + x];
+        byte[] nbt = compressed == null ? null : Region.Inflate(compressed);
+        if (nbt != null) {
+          drawChunk(Region.ParseChunk(nbt), pixels, x, z);
+          chunks += 1;
+        }
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Draw the blocks of a chunk that aren't hidden by their neighbors.
+   * @param chunk the chunk to draw
+   * @param pixels the region's tile
+   * @param xChunk the chunk's x position within the region
+   * @param zChunk the chunk's z position within the region
+   */
+  void drawChunk(Chunk chunk, int[] pixels, int xChunk,
+                 int zChunk) throws FormatException {
+    int top = fillColors(chunk);
+    for(int x=0; x < CUBES_PER_CHUNK; ++x) {
+      for(int z=0; z < CUBES_PER_CHUNK; ++z) {
+        int column = z * CUBES_PER_CHUNK + x;
+        int screenX = ORIGIN_X +
+            2 * (xChunk * CUBES_PER_CHUNK + x - zChunk * CUBES_PER_CHUNK - z);
+        int screenY = ORIGIN_Y +
+            xChunk * CUBES_PER_CHUNK + x + zChunk * CUBES_PER_CHUNK + z;
+        for(int y=0; y < top; ++y) {
+          int color = colors[y * ChunkSurface.COLUMNS + column];
+          if (color != 0) {
+            blocks += 1;
+            if (isHidden(x, y, z)) {
+              culled += 1;
+            } else {
+              drawBlock(pixels, screenX, screenY - 2 * y, color);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Look up the base color of every block in the chunk.
+   * @return one more than the height of the top most section
+   */
+  private int fillColors(Chunk chunk) throws FormatException {
+    int top = 0;
+    for(int s=0; s < SECTIONS_PER_CHUNK; ++s) {
+      Section section = chunk.getSection(s);
+      int offset = s * ChunkSurface.BLOCKS_PER_SECTION;
+      if (section == null) {
+        for(int i=0; i < ChunkSurface.BLOCKS_PER_SECTION; ++i) {
+          colors[offset + i] = 0;
+        }
+      } else {
+        top = (s + 1) * CUBES_PER_SECTION;
+        for(int i=0; i < ChunkSurface.BLOCKS_PER_SECTION; ++i) {
+          colors[offset + i] =
+              blockColors.getBaseColor(section.getBlockKey(i));
+        }
+      }
+    }
+    return top;
+  }
+
+  /**
+   * A block is hidden when the blocks above, south, and east of it, which
+   * cover the three faces that can be seen, are all colored. Blocks on the
+   * chunk's south and east edges are always drawn, because their
+   * neighbors are in another chunk.
+   */
+  private boolean isHidden(int x, int y, int z) {
+    if (x == CUBES_PER_CHUNK - 1 || z == CUBES_PER_CHUNK - 1 ||
+        y == HEIGHT - 1) {
+      return false;
+    }
+    int index = y * ChunkSurface.COLUMNS + z * CUBES_PER_CHUNK + x;
+    return colors[index + ChunkSurface.COLUMNS] != 0 &&
+        colors[index + CUBES_PER_CHUNK] != 0 &&
+        colors[index + 1] != 0;
+  }
+
+  private void drawBlock(int[] pixels, int screenX, int screenY, int color) {
+    int top = OPAQUE | blockColors.getRGB(color, TOP_VARIANT);
+    int south = OPAQUE | blockColors.getRGB(color, SOUTH_VARIANT);
+    int east = OPAQUE | blockColors.getRGB(color, EAST_VARIANT);
+    int row = screenY * TILE_WIDTH + screenX;
+    for(int y=0; y < SPRITE_SIZE / 2; ++y) {
+      for(int x=0; x < SPRITE_SIZE; ++x) {
+        pixels[row + x] = top;
+      }
+      row += TILE_WIDTH;
+    }
+    for(int y=0; y < SPRITE_SIZE / 2; ++y) {
+      for(int x=0; x < SPRITE_SIZE / 2; ++x) {
+        pixels[row + x] = south;
+        pixels[row + SPRITE_SIZE / 2 + x] = east;
+      }
+      row += TILE_WIDTH;
+    }
+  }
+
+  /**
+   * Draw each region on its own thread and write the tiles.
+   * @return the number of regions, chunks, blocks, and culled blocks
+   */
+  static long[] drawRegions(ExecutorService pool, final BlockColors colors,
+                            final Bounds bounds,
+                            List<MapMaker.RegionFile> files,
+                            final File directory) throws Exception {
+    final AtomicLong chunks = new AtomicLong();
+    final AtomicLong blocks = new AtomicLong();
+    final AtomicLong culled = new AtomicLong();
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for(final MapMaker.RegionFile file: files) {
+      results.add(pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          IsometricRenderer renderer = new IsometricRenderer(colors, bounds);
+          BufferedImage image = renderer.drawRegion(file);
+          ImageIO.write(image, "png", new File(directory,
+              "r." + file.x + "." + file.z + ".png"));
+          chunks.addAndGet(renderer.chunks);
+          blocks.addAndGet(renderer.blocks);
+          culled.addAndGet(renderer.culled);
+          return null;
+        }
+      }));
+    }
+    MapMaker.waitFor(results);
+    return new long[]{files.size(), chunks.get(), blocks.get(), culled.get()};
+  }
+
+  public static void main(String[] args) throws Exception {
+    JSAP jsap = new JSAP();
+    jsap.registerParameter(new Switch("help", 'h', "help",
+        "provide help"));
+    jsap.registerParameter(new FlaggedOption("palette", JSAP.STRING_PARSER,
+        null, false, 'p', "palette",
+        "file of 'block[:data] color' lines overriding the map colors"));
+    jsap.registerParameter(new FlaggedOption("threads", JSAP.INTEGER_PARSER,
+        Integer.toString(Runtime.getRuntime().availableProcessors()), false,
+        'T', "threads", "number of regions to render at once"));
+    jsap.registerParameter(new FlaggedOption("bbox", JSAP.STRING_PARSER,
+        null, false, 'b', "bbox",
+        "only render the blocks in the box x1,z1,x2,z2"));
+    jsap.registerParameter(new FlaggedOption("center", JSAP.STRING_PARSER,
+        null, false, 'c', "center",
+        "only render the blocks within the radius of x,z"));
+    jsap.registerParameter(new FlaggedOption("radius", JSAP.INTEGER_PARSER,
+        null, false, 'r', "radius", "the radius in blocks for --center"));
+    jsap.registerParameter(new FlaggedOption("dimensions", JSAP.STRING_PARSER,
+        "overworld,end", false, 'd', "dimensions",
+        "comma separated dimensions to draw from overworld, nether, and end"));
+    jsap.registerParameter(new UnflaggedOption("directory", JSAP.STRING_PARSER,
+        null, true, true, "list of save game directories"));
+    JSAPResult options = jsap.parse(args);
+    if (options.getInt("threads", 1) < 1) {
+      options.addException("threads",
+          new IllegalArgumentException("--threads must be at least 1"));
+    }
+    if (options.contains("center") != options.contains("radius")) {
+      options.addException("radius",
+          new IllegalArgumentException("--center and --radius go together"));
+    } else if (options.contains("center") && options.contains("bbox")) {
+      options.addException("bbox",
+          new IllegalArgumentException("Use either --bbox or --center"));
+    }
+    Bounds requested = null;
+    if (options.success()) {
+      if (options.contains("bbox")) {
+        try {
+          requested = Bounds.parseBox(options.getString("bbox"));
+        } catch (IllegalArgumentException e) {
+          options.addException("bbox", e);
+        }
+      } else if (options.contains("center")) {
+        try {
+          requested = Bounds.parseCircle(options.getString("center"),
+              options.getInt("radius"));
+        } catch (IllegalArgumentException e) {
+          options.addException("center", e);
+        }
+      }
+    }
+
+    if (options.success() && !options.getBoolean("help")) {
+      BlockColors blockColors = options.contains("palette") ?
+          new BlockColors(new File(options.getString("palette"))) :
+          new BlockColors();
+      List<Level.Player.Dimension> dimensions =
+          MapMaker.parseDimensions(options.getString("dimensions"));
+      ExecutorService pool =
+          Executors.newFixedThreadPool(options.getInt("threads"));
+      try {
+        for(String dir: options.getStringArray("directory")) {
+          File saveDir = new File(dir);
+          if (!saveDir.exists() || !saveDir.isDirectory()) {
+            System.err.println("Bad save game directory - " + dir);
+            continue;
+          }
+          int rendered = 0;
+          for(Level.Player.Dimension dimension: dimensions) {
+            File regionDir = MapMaker.getRegionDirectory(saveDir, dimension);
+            if (!regionDir.isDirectory()) {
+              continue;
+            }
+            MapMaker.RegionList regions =
+                new MapMaker.RegionList(requested, regionDir.listFiles());
+            if (regions.filenames.isEmpty()) {
+              continue;
+            }
+            rendered += 1;
+            Bounds bounds = requested != null ? requested :
+                Bounds.ofRegions(regions.minX, regions.maxX,
+                    regions.minZ, regions.maxZ);
+            File tileDir = new File(MapMaker.getDimensionName(
+                saveDir.getName(), dimension) + "-iso");
+            if (!tileDir.isDirectory() && !tileDir.mkdirs()) {
+              throw new IOException("Can't create directory " + tileDir);
+            }
+            System.out.println("Writing isometric tiles to " + tileDir);
+            long start = System.nanoTime();
+            long[] counts = drawRegions(pool, blockColors, bounds,
+                regions.filenames, tileDir);
+            System.out.printf("Rendered %d regions and %d chunks in %.2f s," +
+                    " culled %d of %d blocks (%.1f%%)%n", counts[0],
+                counts[1], (System.nanoTime() - start) / 1e9, counts[3],
+                counts[2],
+                counts[2] == 0 ? 0.0 : 100.0 * counts[3] / counts[2]);
+          }
+          if (rendered == 0) {
+            System.err.println("No regions to render in " + dir);
+          }
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    } else {
+      for (Iterator errs = options.getErrorMessageIterator();
+           errs.hasNext(); ) {
+        System.err.println("Error: " + errs.next());
+      }
+      System.err.println("Usage: iso " + jsap.getUsage());
+      System.err.println();
+      System.err.println(jsap.getHelp());
+      System.exit(1);
+    }
+  }
+}
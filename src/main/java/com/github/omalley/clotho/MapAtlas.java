@@ -0,0 +1,307 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.IO;
+import com.github.omalley.clotho.NBT.Minecraft.Level;
+import com.github.omalley.clotho.NBT.Minecraft.Map;
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stitches the in-game map items in a save's data directory into one tile
+ * pyramid, which shows the parts of the world that the players have
+ * explored without reading any region files. The maps are read in
+ * parallel and each region sized piece of the mosaic is drawn and cut into
+ * tiles as soon as it is ready, so the whole mosaic is never in memory.
+ * Where maps overlap, the finer scale is drawn on top.
+ */
+public class MapAtlas {
+  private static final int TRANSPARENT_COLORS = MapMaker.VARIANTS_PER_COLOR;
+
+  /**
+   * The part of a map item that the atlas needs.
+   */
+  static final class Item {
+    final int id;
+    final int scale;
+    final Level.Player.Dimension dimension;
+    /**
+     * The block at the map's north west corner.
+     */
+    final int left;
+    final int top;
+    /**
+     * The size of the map in pixels, which is 128 by 128 for the maps the
+     * game makes but can be anything for imported pictures.
+     */
+    final int width;
+    final int height;
+    /**
+     * The indexes into Map.MapColors of each pixel, in rows.
+     */
+    final byte[] colors;
+
+    Item(int id, Map map) {
+      this.id = id;
+      scale = map.Scale();
+      dimension = map.Dimension();
+      BufferedImage image = map.Image();
+      width = image.getWidth();
+      height = image.getHeight();
+      left = map.CenterX() - (width << scale) / 2;
+      top = map.CenterZ() - (height << scale) / 2;
+      colors = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    int getWidthInBlocks() {
+      return width << scale;
+    }
+
+    int getHeightInBlocks() {
+      return height << scale;
+    }
+  }
+
+  /**
+   * Coarse maps first, so that the finer ones are drawn over them, and
+   * newer maps over older ones at the same scale.
+   */
+  static final Comparator<Item> DRAW_ORDER = new Comparator<Item>() {
+    @Override
+    public int compare(Item left, Item right) {
+      return left.scale != right.scale ?
+          Integer.compare(right.scale, left.scale) :
+          Integer.compare(left.id, right.id);
+    }
+  };
+
+  /**
+   * Read all of the map_N.dat files in parallel.
+   */
+  static List<Item> readItems(ExecutorService pool,
+                              File dataDir) throws Exception {
+    File[] files = dataDir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.matches("map_[0-9]+\\.dat");
+      }
+    });
+    if (files == null) {
+      return Collections.emptyList();
+    }
+    List<Future<Item>> results = new ArrayList<Future<Item>>();
+    for(final File file: files) {
+      results.add(pool.submit(new Callable<Item>() {
+        @Override
+        public Item call() throws Exception {
+          String name = file.getName();
+          int id = Integer.parseInt(name.substring(4, name.length() - 4));
+          try (InputStream in =
+                   new BufferedInputStream(new FileInputStream(file))) {
+            return new Item(id, new Map(IO.Read(in)));
+          } catch (Exception e) {
+            throw new IOException("Can't read " + file, e);
+          }
+        }
+      }));
+    }
+    List<Item> result = new ArrayList<Item>(results.size());
+    for(Future<Item> item: results) {
+      result.add(item.get());
+    }
+    return result;
+  }
+
+  /**
+   * Draw the maps over one region.
+   * @param items the maps that overlap the region in drawing order
+   */
+  static RegionTile drawRegion(int x, int z, List<Item> items) {
+    RegionTile tile = new RegionTile(x, z);
+    int regionLeft = x * RegionTile.SIZE;
+    int regionTop = z * RegionTile.SIZE;
+    for(Item item: items) {
+      int left = Math.max(item.left, regionLeft);
+      int right = Math.min(item.left + item.getWidthInBlocks(),
+          regionLeft + RegionTile.SIZE);
+      int top = Math.max(item.top, regionTop);
+      int bottom = Math.min(item.top + item.getHeightInBlocks(),
+          regionTop + RegionTile.SIZE);
+      for(int blockZ=top; blockZ < bottom; ++blockZ) {
+        int source = ((blockZ - item.top) >> item.scale) * item.width;
+        int row = (blockZ - regionTop) * RegionTile.SIZE - regionLeft;
+        for(int blockX=left; blockX < right; ++blockX) {
+          int color = item.colors[source + ((blockX - item.left) >>
+              item.scale)] & 0xff;
+          if (color >= TRANSPARENT_COLORS && color < Map.MapColors.length) {
+            tile.pixels[row + blockX] =
+                Map.MapColors[color].getRGB() & 0xffffff;
+          }
+        }
+      }
+    }
+    return tile;
+  }
+
+  /**
+   * Draw the atlas of one dimension's maps into a tile pyramid.
+   * @return the number of regions that were drawn
+   */
+  static int drawAtlas(ExecutorService pool, List<Item> items,
+                       File directory) throws Exception {
+    Collections.sort(items, DRAW_ORDER);
+    // the maps over each region, packed like TileOutput does
+    TreeMap<Long, List<Item>> regions = new TreeMap<Long, List<Item>>();
+    int minX = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE;
+    int minZ = Integer.MAX_VALUE;
+    int maxZ = Integer.MIN_VALUE;
+    for(Item item: items) {
+      int x1 = Bounds.floorDiv(item.left, RegionTile.SIZE);
+      int x2 = Bounds.floorDiv(item.left + item.getWidthInBlocks() - 1,
+          RegionTile.SIZE);
+      int z1 = Bounds.floorDiv(item.top, RegionTile.SIZE);
+      int z2 = Bounds.floorDiv(item.top + item.getHeightInBlocks() - 1,
+          RegionTile.SIZE);
+      minX = Math.min(minX, x1);
+      maxX = Math.max(maxX, x2);
+      minZ = Math.min(minZ, z1);
+      maxZ = Math.max(maxZ, z2);
+      for(int z=z1; z <= z2; ++z) {
+        for(int x=x1; x <= x2; ++x) {
+          long key = ((long) z << 32) | (x & 0xffffffffL);
+          List<Item> list = regions.get(key);
+          if (list == null) {
+            list = new ArrayList<Item>();
+            regions.put(key, list);
+          }
+          list.add(item);
+        }
+      }
+    }
+    if (regions.isEmpty()) {
+      return 0;
+    }
+    final TileOutput tiles = new TileOutput(directory,
+        Bounds.ofRegions(minX, maxX, minZ, maxZ));
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for(final java.util.Map.Entry<Long, List<Item>> region:
+        regions.entrySet()) {
+      results.add(pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          long key = region.getKey();
+          tiles.drawRegion(drawRegion((int) key, (int) (key >> 32),
+              region.getValue()));
+          return null;
+        }
+      }));
+    }
+    MapMaker.waitFor(results);
+    tiles.finish(pool);
+    return regions.size();
+  }
+
+  public static void main(String[] args) throws Exception {
+    JSAP jsap = new JSAP();
+    jsap.registerParameter(new Switch("help", 'h', "help",
+        "provide help"));
+    jsap.registerParameter(new FlaggedOption("threads", JSAP.INTEGER_PARSER,
+        Integer.toString(Runtime.getRuntime().availableProcessors()), false,
+        'T', "threads", "number of maps and regions to work on at once"));
+    jsap.registerParameter(new FlaggedOption("dimensions", JSAP.STRING_PARSER,
+        "overworld,nether,end", false, 'd', "dimensions",
+        "comma separated dimensions to draw from overworld, nether, and end"));
+    jsap.registerParameter(new UnflaggedOption("directory", JSAP.STRING_PARSER,
+        null, true, true, "list of save game directories"));
+    JSAPResult options = jsap.parse(args);
+    if (options.getInt("threads", 1) < 1) {
+      options.addException("threads",
+          new IllegalArgumentException("--threads must be at least 1"));
+    }
+
+    if (options.success() && !options.getBoolean("help")) {
+      List<Level.Player.Dimension> dimensions =
+          MapMaker.parseDimensions(options.getString("dimensions"));
+      ExecutorService pool =
+          Executors.newFixedThreadPool(options.getInt("threads"));
+      try {
+        for(String dir: options.getStringArray("directory")) {
+          File saveDir = new File(dir);
+          if (!saveDir.exists() || !saveDir.isDirectory()) {
+            System.err.println("Bad save game directory - " + dir);
+            continue;
+          }
+          long start = System.nanoTime();
+          List<Item> items = readItems(pool, new File(saveDir, "data"));
+          if (items.isEmpty()) {
+            System.err.println("No maps in " + dir);
+            continue;
+          }
+          for(Level.Player.Dimension dimension: dimensions) {
+            List<Item> chosen = new ArrayList<Item>();
+            for(Item item: items) {
+              if (item.dimension == dimension) {
+                chosen.add(item);
+              }
+            }
+            if (chosen.isEmpty()) {
+              continue;
+            }
+            File tileDir = new File(MapMaker.getDimensionName(
+                saveDir.getName(), dimension) + "-atlas");
+            System.out.println("Writing atlas tiles to " + tileDir);
+            int regions = drawAtlas(pool, chosen, tileDir);
+            System.out.printf("Drew %d maps over %d regions in %.2f s%n",
+                chosen.size(), regions, (System.nanoTime() - start) / 1e9);
+          }
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    } else {
+      for (Iterator errs = options.getErrorMessageIterator();
+           errs.hasNext(); ) {
+        System.err.println("Error: " + errs.next());
+      }
+      System.err.println("Usage: atlas " + jsap.getUsage());
+      System.err.println();
+      System.err.println(jsap.getHelp());
+      System.exit(1);
+    }
+  }
+}
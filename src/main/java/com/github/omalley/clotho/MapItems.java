@@ -0,0 +1,427 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.FormatException;
+import com.github.omalley.clotho.NBT.IO;
+import com.github.omalley.clotho.NBT.Minecraft.Level;
+import com.github.omalley.clotho.NBT.Minecraft.Map;
+import com.github.omalley.clotho.NBT.Tag;
+import com.martiansoftware.jsap.FlaggedOption;
+import com.martiansoftware.jsap.JSAP;
+import com.martiansoftware.jsap.JSAPResult;
+import com.martiansoftware.jsap.Switch;
+import com.martiansoftware.jsap.UnflaggedOption;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.github.omalley.clotho.MapMaker.VARIANTS_PER_COLOR;
+
+/**
+ * Renders the world into in-game map items. The maps are laid out on the
+ * same grid that Minecraft uses, so a map at scale s covers 128 * 2^s
+ * blocks and the map at the origin runs from -64 to 63. Each region is
+ * decoded once by the render pipeline and is then shrunk into every scale
+ * that covers it. A map is written to data/map_N.dat as soon as all of the
+ * regions under it are done, so only the maps along the current row of
+ * regions are in memory.
+ */
+public class MapItems implements RegionSink {
+  static final int MAP_SIZE = 128;
+  static final int MAX_SCALE = 4;
+  /**
+   * How far the map grid is shifted from the block grid.
+   */
+  static final int GRID_OFFSET = MAP_SIZE / 2;
+  static final String ID_COUNTS = "idcounts.dat";
+
+  private final File dataDir;
+  private final Level.Player.Dimension dimension;
+  private final List<Integer> scales;
+  private final HashMap<String, Item> items = new HashMap<String, Item>();
+  private final int[] counts = new int[256];
+  private int nextId;
+  private int written = 0;
+
+  /**
+   * One map that is being drawn.
+   */
+  private static final class Item {
+    final int scale;
+    final int x;
+    final int z;
+    /**
+     * The base map color of each pixel; 0 where there is nothing.
+     */
+    byte[] colors;
+    /**
+     * The average height of each pixel's blocks.
+     */
+    byte[] heights;
+    /**
+     * The number of regions under the map that haven't been drawn.
+     */
+    int pending = 0;
+
+    Item(int scale, int x, int z) {
+      this.scale = scale;
+      this.x = x;
+      this.z = z;
+    }
+
+    int getBlocks() {
+      return MAP_SIZE << scale;
+    }
+
+    /**
+     * The block at the map's north west corner.
+     */
+    int getLeft() {
+      return x * getBlocks() - GRID_OFFSET;
+    }
+
+    int getTop() {
+      return z * getBlocks() - GRID_OFFSET;
+    }
+  }
+
+  /**
+   * @param dataDir the save's data directory
+   * @param dimension the dimension that the regions are from
+   * @param scales the scales to make maps at
+   * @param files the regions that will be drawn
+   * @param nextId the number of the first map
+   */
+  MapItems(File dataDir, Level.Player.Dimension dimension,
+           List<Integer> scales, List<MapMaker.RegionFile> files,
+           int nextId) {
+    this.dataDir = dataDir;
+    this.dimension = dimension;
+    this.scales = scales;
+    this.nextId = nextId;
+    for(MapMaker.RegionFile file: files) {
+      for(int scale: scales) {
+        for(Item item: getItems(scale, file.x, file.z, true)) {
+          item.pending += 1;
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the maps at a scale that cover part of a region.
+   * @param create whether to make the missing maps
+   */
+  private List<Item> getItems(int scale, int regionX, int regionZ,
+                              boolean create) {
+    int blocks = MAP_SIZE << scale;
+    int left = regionX * RegionTile.SIZE + GRID_OFFSET;
+    int top = regionZ * RegionTile.SIZE + GRID_OFFSET;
+    List<Item> result = new ArrayList<Item>();
+    for(int z = Bounds.floorDiv(top, blocks);
+        z <= Bounds.floorDiv(top + RegionTile.SIZE - 1, blocks); ++z) {
+      for(int x = Bounds.floorDiv(left, blocks);
+          x <= Bounds.floorDiv(left + RegionTile.SIZE - 1, blocks); ++x) {
+        String key = scale + ":" + x + ":" + z;
+        Item item = items.get(key);
+        if (item == null && create) {
+          item = new Item(scale, x, z);
+          items.put(key, item);
+        }
+        if (item != null) {
+          result.add(item);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Shrink a region into each map that covers it and write the maps that
+   * are done. The render pipeline calls this from one thread.
+   */
+  @Override
+  public synchronized void drawRegion(RegionTile tile) throws IOException {
+    for(int scale: scales) {
+      for(Item item: getItems(scale, tile.x, tile.z, false)) {
+        drawItem(item, tile);
+        item.pending -= 1;
+        if (item.pending == 0) {
+          items.remove(item.scale + ":" + item.x + ":" + item.z);
+          write(item);
+        }
+      }
+    }
+  }
+
+  /**
+   * Fill in the pixels of a map that are over a region. Like Minecraft,
+   * each pixel takes the most common color of its blocks and their average
+   * height. Pixels never straddle regions, because a region's 512 blocks
+   * and the grid's offset of 64 are multiples of the largest pixel.
+   */
+  private void drawItem(Item item, RegionTile tile) {
+    if (item.colors == null) {
+      item.colors = new byte[MAP_SIZE * MAP_SIZE];
+      item.heights = new byte[MAP_SIZE * MAP_SIZE];
+    }
+    int step = 1 << item.scale;
+    int regionLeft = tile.x * RegionTile.SIZE;
+    int regionTop = tile.z * RegionTile.SIZE;
+    int left = Math.max(item.getLeft(), regionLeft);
+    int right = Math.min(item.getLeft() + item.getBlocks(),
+        regionLeft + RegionTile.SIZE);
+    int top = Math.max(item.getTop(), regionTop);
+    int bottom = Math.min(item.getTop() + item.getBlocks(),
+        regionTop + RegionTile.SIZE);
+    for(int z=top; z < bottom; z += step) {
+      for(int x=left; x < right; x += step) {
+        int best = 0;
+        int height = 0;
+        for(int dz=0; dz < step; ++dz) {
+          int row = (z + dz - regionTop) * RegionTile.SIZE + x - regionLeft;
+          for(int dx=0; dx < step; ++dx) {
+            int color = tile.colors[row + dx] & 0xff;
+            height += tile.heights[row + dx] & 0xff;
+            counts[color] += 1;
+            if (counts[color] > counts[best] ||
+                (counts[color] == counts[best] && best == 0)) {
+              best = color;
+            }
+          }
+        }
+        for(int dz=0; dz < step; ++dz) {
+          int row = (z + dz - regionTop) * RegionTile.SIZE + x - regionLeft;
+          for(int dx=0; dx < step; ++dx) {
+            counts[tile.colors[row + dx] & 0xff] = 0;
+          }
+        }
+        int pixel = ((z - item.getTop()) >> item.scale) * MAP_SIZE +
+            ((x - item.getLeft()) >> item.scale);
+        item.colors[pixel] = (byte) best;
+        item.heights[pixel] = (byte) (height >> (2 * item.scale));
+      }
+    }
+  }
+
+  /**
+   * Shade a map by comparing each pixel's height with the pixel north of it
+   * and write it to the next map_N.dat file.
+   */
+  private void write(Item item) throws IOException {
+    if (item.colors == null) {
+      return;
+    }
+    byte[] data = new byte[MAP_SIZE * MAP_SIZE];
+    for(int z=0; z < MAP_SIZE; ++z) {
+      for(int x=0; x < MAP_SIZE; ++x) {
+        int pixel = z * MAP_SIZE + x;
+        int color = item.colors[pixel] & 0xff;
+        if (color != 0) {
+          int north = z == 0 ? pixel : pixel - MAP_SIZE;
+          int diff = (item.heights[pixel] & 0xff) -
+              (item.heights[north] & 0xff);
+          int variant = diff > 0 ? 2 : diff < 0 ? 0 : 1;
+          data[pixel] = (byte) (color * VARIANTS_PER_COLOR + variant);
+        }
+      }
+    }
+    int blocks = item.getBlocks();
+    Map map = new Map((byte) item.scale, dimension,
+        item.getLeft() + blocks / 2, item.getTop() + blocks / 2, data);
+    File file = new File(dataDir, "map_" + nextId + ".dat");
+    nextId += 1;
+    written += 1;
+    try (OutputStream out =
+             new BufferedOutputStream(new FileOutputStream(file))) {
+      IO.Write(map.ToNBT(""), out);
+    }
+  }
+
+  /**
+   * Write the maps that are still waiting for regions, which only happens
+   * when the render stopped early.
+   */
+  synchronized void finish() throws IOException {
+    List<Item> left = new ArrayList<Item>(items.values());
+    items.clear();
+    for(Item item: left) {
+      write(item);
+    }
+  }
+
+  int getNextId() {
+    return nextId;
+  }
+
+  int getWritten() {
+    return written;
+  }
+
+  /**
+   * Read the number of the next free map from idcounts.dat.
+   * @return 0 if there are no maps yet
+   */
+  static int readNextId(File dataDir) throws IOException, FormatException {
+    File file = new File(dataDir, ID_COUNTS);
+    if (!file.exists()) {
+      return 0;
+    }
+    try (InputStream in = new FileInputStream(file)) {
+      Tag.Compound counts = IO.ReadUncompressed(in);
+      Tag last = counts.get("map");
+      return last == null ? 0 : ((Tag.ShortTag) last).v + 1;
+    }
+  }
+
+  /**
+   * Record the number of the last map in idcounts.dat, so that the game
+   * doesn't reuse the numbers.
+   */
+  static void writeNextId(File dataDir, int nextId) throws IOException {
+    if (nextId - 1 > Short.MAX_VALUE) {
+      throw new IOException("Too many maps for idcounts.dat: " + nextId);
+    }
+    try (OutputStream out = new BufferedOutputStream(
+        new FileOutputStream(new File(dataDir, ID_COUNTS)))) {
+      IO.WriteUncompressed(new Tag.Compound("",
+          new Tag.ShortTag("map", (short) (nextId - 1))), out);
+    }
+  }
+
+  /**
+   * Parse a comma separated list of scales such as "0,2,4".
+   */
+  static List<Integer> parseScales(String spec) {
+    List<Integer> result = new ArrayList<Integer>();
+    for(String part: spec.split(",")) {
+      int scale = Integer.parseInt(part.trim());
+      if (scale < 0 || scale > MAX_SCALE) {
+        throw new IllegalArgumentException("Bad map scale " + scale);
+      }
+      if (!result.contains(scale)) {
+        result.add(scale);
+      }
+    }
+    return result;
+  }
+
+  public static void main(String[] args) throws Exception {
+    JSAP jsap = new JSAP();
+    jsap.registerParameter(new Switch("help", 'h', "help",
+        "provide help"));
+    jsap.registerParameter(new FlaggedOption("palette", JSAP.STRING_PARSER,
+        null, false, 'p', "palette",
+        "file of 'block[:data] color' lines overriding the map colors"));
+    jsap.registerParameter(new FlaggedOption("threads", JSAP.INTEGER_PARSER,
+        Integer.toString(Runtime.getRuntime().availableProcessors()), false,
+        'T', "threads", "number of regions to render at once"));
+    jsap.registerParameter(new FlaggedOption("scales", JSAP.STRING_PARSER,
+        "0,1,2,3,4", false, 's', "scales",
+        "comma separated map scales from 0 to 4 to make maps at"));
+    jsap.registerParameter(new FlaggedOption("dimensions", JSAP.STRING_PARSER,
+        "overworld", false, 'd', "dimensions",
+        "comma separated dimensions to draw from overworld, nether, and end"));
+    jsap.registerParameter(new UnflaggedOption("directory", JSAP.STRING_PARSER,
+        null, true, true, "list of save game directories"));
+    JSAPResult options = jsap.parse(args);
+    if (options.getInt("threads", 1) < 1) {
+      options.addException("threads",
+          new IllegalArgumentException("--threads must be at least 1"));
+    }
+
+    if (options.success() && !options.getBoolean("help")) {
+      BlockColors blockColors = options.contains("palette") ?
+          new BlockColors(new File(options.getString("palette"))) :
+          new BlockColors();
+      List<RenderLayer> layers =
+          RenderLayers.parse(RenderLayers.SURFACE, blockColors);
+      List<Integer> scales = parseScales(options.getString("scales"));
+      List<Level.Player.Dimension> dimensions =
+          MapMaker.parseDimensions(options.getString("dimensions"));
+      int threads = options.getInt("threads");
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+        for(String dir: options.getStringArray("directory")) {
+          File saveDir = new File(dir);
+          if (!saveDir.exists() || !saveDir.isDirectory()) {
+            System.err.println("Bad save game directory - " + dir);
+            continue;
+          }
+          File dataDir = new File(saveDir, "data");
+          if (!dataDir.isDirectory() && !dataDir.mkdirs()) {
+            throw new IOException("Can't create directory " + dataDir);
+          }
+          int firstId = readNextId(dataDir);
+          int nextId = firstId;
+          for(Level.Player.Dimension dimension: dimensions) {
+            File regionDir = MapMaker.getRegionDirectory(saveDir, dimension);
+            if (!regionDir.isDirectory()) {
+              continue;
+            }
+            MapMaker.RegionList regions =
+                new MapMaker.RegionList(null, regionDir.listFiles());
+            if (regions.filenames.isEmpty()) {
+              continue;
+            }
+            Bounds bounds = Bounds.ofRegions(regions.minX, regions.maxX,
+                regions.minZ, regions.maxZ);
+            MapMaker.Settings settings = new MapMaker.Settings(pool, threads,
+                blockColors, layers, null, bounds, false, dimension);
+            MapItems maps = new MapItems(dataDir, dimension, scales,
+                regions.filenames, nextId);
+            MapMaker.renderRegions(settings, regions.filenames,
+                Collections.singletonList(maps));
+            maps.finish();
+            nextId = maps.getNextId();
+            System.out.println("Wrote " + maps.getWritten() + " " +
+                dimension + " maps to " + dataDir);
+            settings.stats.report(System.out);
+          }
+          if (nextId == firstId) {
+            System.err.println("No regions to render in " + dir);
+          } else {
+            writeNextId(dataDir, nextId);
+            System.out.println("Maps " + firstId + " to " + (nextId - 1) +
+                " are new");
+          }
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    } else {
+      for (Iterator errs = options.getErrorMessageIterator();
+           errs.hasNext(); ) {
+        System.err.println("Error: " + errs.next());
+      }
+      System.err.println("Usage: items " + jsap.getUsage());
+      System.err.println();
+      System.err.println(jsap.getHelp());
+      System.exit(1);
+    }
+  }
+}
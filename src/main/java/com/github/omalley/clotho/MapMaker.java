@@ -13,12 +13,10 @@
  */
 package com.github.omalley.clotho;
 
-import com.github.omalley.clotho.NBT.FormatException;
-import com.github.omalley.clotho.NBT.Minecraft.Chunk;
-import com.github.omalley.clotho.NBT.Minecraft.ID;
+import com.github.omalley.clotho.NBT.Minecraft.ColorIndex;
+import com.github.omalley.clotho.NBT.Minecraft.Level;
 import com.github.omalley.clotho.NBT.Minecraft.Map;
-import com.github.omalley.clotho.NBT.Minecraft.Region;
-import com.github.omalley.clotho.NBT.Minecraft.Section;
+import com.martiansoftware.jsap.FlaggedOption;
 import com.martiansoftware.jsap.JSAP;
 import com.martiansoftware.jsap.JSAPResult;
 import com.martiansoftware.jsap.Switch;
@@ -27,25 +25,44 @@ import com.martiansoftware.jsap.UnflaggedOption;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Create a map from a Minecraft save game's region files.
  */
-public class MapMaker {
+public class MapMaker implements RegionSink {
   static final int SECTIONS_PER_CHUNK = 16;
   static final int CUBES_PER_SECTION = 16;
   static final int CUBES_PER_CHUNK = 16;
   static final int CHUNKS_PER_REGION = 32;
   static final int VARIANTS_PER_COLOR = 4;
   static final int CHUNKS_PER_INDEX = 8;
+  /**
+   * The top of the Nether, which is covered with a bedrock roof.
+   */
+  static final int NETHER_CEILING = 127;
 
   static final Color indexColor = new Color(252, 116, 253);
 
+  /**
+   * The map colors followed by the grid color, for the 8 bit images.
+   */
+  static final IndexColorModel PALETTE = createPalette();
+  static final ColorIndex PALETTE_INDEX = new ColorIndex(PALETTE);
+
   static class ResourceCount {
     int[] count = new int[3000];
     int missing = 0;
@@ -53,133 +70,278 @@ public class MapMaker {
 
   private final BufferedImage image;
   private final Graphics graphics;
-  private final int xRegionMin;
-  private final int xRegionWidth;
-  private final int zRegionMin;
-  private final int zRegionWidth;
+  /**
+   * The pixels of an RGB image; null for a palette image.
+   */
+  private final int[] pixels;
+  /**
+   * The pixels of a palette image; null for an RGB image.
+   */
+  private final byte[] indexes;
+  private final Bounds bounds;
   private final int height;
   private final int width;
-  private final Color[][] colors;
+  private final int top;
+  private final int rows;
+  private boolean drewGrid = false;
 
   public MapMaker(int xRegionMin, int xRegionWidth,
                   int zRegionMin, int zRegionWidth) {
-    this.xRegionMin = xRegionMin;
-    this.xRegionWidth = xRegionWidth;
-    this.zRegionMin = zRegionMin;
-    this.zRegionWidth = zRegionWidth;
-    width = CUBES_PER_CHUNK * CHUNKS_PER_REGION * xRegionWidth +
-        xRegionWidth - 1;
-    height = CUBES_PER_CHUNK * CHUNKS_PER_REGION * zRegionWidth +
-        zRegionWidth - 1;
-    image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-    graphics = image.getGraphics();
-    graphics.setColor(new Color(0,0,0));
-    graphics.fillRect(0, 0, width, height);
-    colors = new Color[CUBES_PER_CHUNK][];
-    for(int i=0; i < CUBES_PER_CHUNK; ++i) {
-      colors[i] = new Color[CUBES_PER_CHUNK];
+    this(Bounds.ofRegions(xRegionMin, xRegionMin + xRegionWidth - 1,
+        zRegionMin, zRegionMin + zRegionWidth - 1));
+  }
+
+  /**
+   * Create a map of the chunks in the bounds.
+   * @param indexed store the image as 8 bit indexes into PALETTE, which
+   *                only works if every color comes from the map colors
+   */
+  MapMaker(Bounds bounds, boolean indexed) {
+    this(bounds, 0, getPixels(bounds.minZ, bounds.maxZ), indexed);
+  }
+
+  MapMaker(Bounds bounds) {
+    this(bounds, false);
+  }
+
+  /**
+   * Create a map that only holds a horizontal band of the full image.
+   * @param bounds the chunks in the full image
+   * @param top the first row of the full image in this band
+   * @param rows the number of rows in this band
+   * @param indexed store the image as 8 bit indexes into PALETTE
+   */
+  MapMaker(Bounds bounds, int top, int rows, boolean indexed) {
+    this.bounds = bounds;
+    width = getPixels(bounds.minX, bounds.maxX);
+    height = getPixels(bounds.minZ, bounds.maxZ);
+    this.top = top;
+    this.rows = rows;
+    // a new image is already black, which is also the first map color
+    if (indexed) {
+      image = new BufferedImage(width, rows, BufferedImage.TYPE_BYTE_INDEXED,
+          PALETTE);
+      pixels = null;
+      indexes =
+          ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    } else {
+      image = new BufferedImage(width, rows, BufferedImage.TYPE_INT_RGB);
+      pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+      indexes = null;
     }
+    graphics = image.getGraphics();
+    // draw in the full image's coordinates and let Java2D clip to the band
+    graphics.translate(0, -top);
   }
 
-  void clearColors() {
-    for(int x=0; x < CUBES_PER_CHUNK; ++x) {
-      for(int z=0; z < CUBES_PER_CHUNK; ++z) {
-        colors[x][z] = null;
-      }
+  private static IndexColorModel createPalette() {
+    int size = Map.MapColors.length + 1;
+    byte[] red = new byte[size];
+    byte[] green = new byte[size];
+    byte[] blue = new byte[size];
+    for(int i=0; i < size; ++i) {
+      Color color = i < Map.MapColors.length ? Map.MapColors[i] : indexColor;
+      red[i] = (byte) color.getRed();
+      green[i] = (byte) color.getGreen();
+      blue[i] = (byte) color.getBlue();
     }
+    return new IndexColorModel(8, size, red, green, blue);
+  }
+
+  /**
+   * Get the size of the image for a range of chunks, which includes a one
+   * pixel grid line before each chunk that is a multiple of
+   * CHUNKS_PER_INDEX.
+   * @param min the first chunk
+   * @param max the last chunk
+   * @return the number of pixels
+   */
+  static int getPixels(int min, int max) {
+    return getOffset(max, min) + CUBES_PER_CHUNK;
+  }
+
+  /**
+   * Get the position in the image of a chunk's first pixel.
+   * @param chunk the chunk's absolute coordinate
+   * @param min the chunk at the image's edge
+   * @return the number of pixels from the image's edge
+   */
+  static int getOffset(int chunk, int min) {
+    return CUBES_PER_CHUNK * (chunk - min) +
+        Bounds.floorDiv(chunk, CHUNKS_PER_INDEX) -
+        Bounds.floorDiv(min, CHUNKS_PER_INDEX);
   }
 
-  int fillInSection(Color[][] colors,
-                    Section section,
-                    int sectionId) throws FormatException {
-    int result = 0;
-    for(int x=0; x < CUBES_PER_CHUNK; ++x) {
+  /**
+   * Copy a rendered region into the image. Regions don't overlap, so
+   * different threads may draw different regions at the same time.
+   * @param tile the rendered region
+   */
+  @Override
+  public void drawRegion(RegionTile tile) {
+    int xRegion = tile.x * CHUNKS_PER_REGION;
+    int zRegion = tile.z * CHUNKS_PER_REGION;
+    int xFirst = Math.max(bounds.minX, xRegion);
+    int xLast = Math.min(bounds.maxX, xRegion + CHUNKS_PER_REGION - 1);
+    int zFirst = Math.max(bounds.minZ, zRegion);
+    int zLast = Math.min(bounds.maxZ, zRegion + CHUNKS_PER_REGION - 1);
+    for(int zChunk=zFirst; zChunk <= zLast; ++zChunk) {
+      int yChunk = getOffset(zChunk, bounds.minZ) - top;
       for(int z=0; z < CUBES_PER_CHUNK; ++z) {
-        if (colors[x][z] == null) {
-          for(int y= CUBES_PER_SECTION - 1; y >= 0; --y) {
-            int color =
-                getColorByCubeKind(ID.fromId(section.getBlockID(x, y, z)));
-            if (color != 0) {
-              int height = sectionId * CUBES_PER_SECTION + y;
-              result += 1;
-              colors[x][z] = Map.MapColors[color * VARIANTS_PER_COLOR +
-                  getColorVariant(height)];
-              break;
+        int y = yChunk + z;
+        if (y < 0 || y >= rows) {
+          continue;
+        }
+        int source = ((zChunk - zRegion) * CUBES_PER_CHUNK + z) *
+            RegionTile.SIZE;
+        // copy each run of chunks between the grid lines at once
+        int xChunk = xFirst;
+        while (xChunk <= xLast) {
+          int end = Math.min(xLast, (Bounds.floorDiv(xChunk,
+              CHUNKS_PER_INDEX) + 1) * CHUNKS_PER_INDEX - 1);
+          int from = source + (xChunk - xRegion) * CUBES_PER_CHUNK;
+          int to = y * width + getOffset(xChunk, bounds.minX);
+          int length = (end - xChunk + 1) * CUBES_PER_CHUNK;
+          if (indexes == null) {
+            System.arraycopy(tile.pixels, from, pixels, to, length);
+          } else {
+            for(int i=0; i < length; ++i) {
+              int index = PALETTE_INDEX.Get(tile.pixels[from + i]);
+              if (index < 0) {
+                throw new IllegalArgumentException(String.format(
+                    "Color %06x isn't a map color", tile.pixels[from + i]));
+              }
+              indexes[to + i] = (byte) index;
             }
           }
+          xChunk = end + 1;
         }
       }
     }
-    return result;
   }
 
-  void drawChunk(Chunk chunk, int xOffset, int zOffset) throws FormatException {
-    int remaining = CUBES_PER_CHUNK * CUBES_PER_CHUNK;
-    int section = SECTIONS_PER_CHUNK - 1;
-    clearColors();
-    while (section >= 0 && remaining > 0) {
-      Section sect = chunk.getSection(section);
-      if (sect != null) {
-        remaining -= fillInSection(colors, sect, section);
-      }
-      section -= 1;
-    }
-    for(int x=0; x < CUBES_PER_CHUNK; x++) {
-      for(int z=0; z < CUBES_PER_CHUNK; z++) {
-        if (colors[x][z] != null) {
-          graphics.setColor(colors[x][z]);
-        } else {
-          graphics.setColor(Map.MapColors[0]);
-        }
-        graphics.fillRect(x + xOffset, z + zOffset, 1, 1);
-      }
-    }
+  /**
+   * Get the first chunk after min that starts a new group of
+   * CHUNKS_PER_INDEX chunks.
+   */
+  private static int getFirstIndex(int min) {
+    return (Bounds.floorDiv(min, CHUNKS_PER_INDEX) + 1) * CHUNKS_PER_INDEX;
   }
 
-  public void drawRegion(Region region, int xRegion,
-                         int zRegion) throws IOException, FormatException {
-    int xRegionPositive = xRegion - xRegionMin;
-    int zRegionPositive = zRegion - zRegionMin;
-    for(int x = 0; x < CHUNKS_PER_REGION; ++x) {
-      for(int z = 0; z < CHUNKS_PER_REGION; ++z) {
-        Chunk chunk = region.ReadChunk(x, z);
-        if (chunk != null) {
-          drawChunk(chunk,
-              CUBES_PER_CHUNK * (x + CHUNKS_PER_REGION * xRegionPositive) +
-                  (xRegionPositive * CHUNKS_PER_REGION + x) / CHUNKS_PER_INDEX,
-              CUBES_PER_CHUNK * (z + CHUNKS_PER_REGION * zRegionPositive) +
-                  (zRegionPositive * CHUNKS_PER_REGION + z) / CHUNKS_PER_INDEX);
-        }
-      }
+  /**
+   * Draw the grid lines and their coordinate labels over the map.
+   */
+  void drawGrid() {
+    if (drewGrid) {
+      return;
     }
-  }
-
-  public void saveImage(String filename) throws IOException {
+    drewGrid = true;
     graphics.setColor(indexColor);
     FontMetrics fontMetrics = graphics.getFontMetrics();
     int descent = fontMetrics.getDescent();
     int fontHeight = fontMetrics.getHeight();
-    for(int x=1; x < xRegionWidth*CHUNKS_PER_REGION/CHUNKS_PER_INDEX; ++x) {
-      int xCoord = x * CUBES_PER_CHUNK * CHUNKS_PER_INDEX + x - 1;
+    for(int x=getFirstIndex(bounds.minX); x <= bounds.maxX;
+        x += CHUNKS_PER_INDEX) {
+      int xCoord = getOffset(x, bounds.minX) - 1;
       graphics.fillRect(xCoord, 0, 1, height);
-      String label = Integer.toString((x * CHUNKS_PER_INDEX +
-          xRegionMin * CHUNKS_PER_REGION) * CUBES_PER_CHUNK);
+      String label = Integer.toString(x * CUBES_PER_CHUNK);
       graphics.drawString(label, xCoord + 2 , fontHeight);
       graphics.drawString(label, xCoord + 2 , height - descent);
     }
-    for(int z=1; z < zRegionWidth*CHUNKS_PER_REGION/CHUNKS_PER_INDEX; ++z) {
-      int zCoord = z * CUBES_PER_CHUNK * CHUNKS_PER_INDEX + z - 1;
+    for(int z=getFirstIndex(bounds.minZ); z <= bounds.maxZ;
+        z += CHUNKS_PER_INDEX) {
+      int zCoord = getOffset(z, bounds.minZ) - 1;
       graphics.fillRect(0, zCoord, width, 1);
-      String label = Integer.toString((z * CHUNKS_PER_INDEX +
-          zRegionMin * CHUNKS_PER_REGION) * CUBES_PER_CHUNK);
+      String label = Integer.toString(z * CUBES_PER_CHUNK);
       graphics.drawString(label, 2 , zCoord + fontHeight);
       graphics.drawString(label, width - fontMetrics.stringWidth(label) - 2,
           zCoord + fontHeight);
     }
+  }
+
+  public void saveImage(String filename) throws IOException {
+    drawGrid();
     ImageIO.write(image, "png", new File(filename));
   }
 
-  private static class RegionFile {
+  /**
+   * Send this band's rows, including the grid, to a streaming PNG.
+   * @param png the image to add the rows to
+   */
+  void writeRows(PngWriter png) throws IOException {
+    drawGrid();
+    for(int y=0; y < rows; ++y) {
+      if (indexes == null) {
+        png.writeRow(pixels, y * width);
+      } else {
+        png.writeRow(indexes, y * width);
+      }
+    }
+  }
+
+  /**
+   * Render the map one row of regions at a time and stream each band into
+   * the PNG, so only a band of width x 516 pixels per layer is in memory at
+   * once.
+   * @param filenames the file to write for each layer
+   */
+  static void streamImage(Settings settings,
+                          RegionList regions,
+                          List<String> filenames) throws Exception {
+    Bounds bounds = settings.bounds;
+    int first = Bounds.floorDiv(bounds.minZ, CHUNKS_PER_REGION);
+    int last = Bounds.floorDiv(bounds.maxZ, CHUNKS_PER_REGION);
+    List<List<RegionFile>> bands =
+        new ArrayList<List<RegionFile>>(last - first + 1);
+    for(int z=first; z <= last; ++z) {
+      bands.add(new ArrayList<RegionFile>());
+    }
+    for(RegionFile file: regions.filenames) {
+      bands.get(file.z - first).add(file);
+    }
+    int width = getPixels(bounds.minX, bounds.maxX);
+    int height = getPixels(bounds.minZ, bounds.maxZ);
+    List<PngWriter> pngs = new ArrayList<PngWriter>(filenames.size());
+    boolean done = false;
+    try {
+      for(int layer=0; layer < filenames.size(); ++layer) {
+        pngs.add(new PngWriter(new BufferedOutputStream(
+            new FileOutputStream(filenames.get(layer))), width, height,
+            settings.layers.get(layer).usesMapColors() ? PALETTE : null));
+      }
+      for(int z=first; z <= last; ++z) {
+        int top = getOffset(Math.max(bounds.minZ, z * CHUNKS_PER_REGION),
+            bounds.minZ);
+        int bottom = z == last ? height :
+            getOffset((z + 1) * CHUNKS_PER_REGION, bounds.minZ);
+        List<MapMaker> band = new ArrayList<MapMaker>(pngs.size());
+        for(int layer=0; layer < pngs.size(); ++layer) {
+          band.add(new MapMaker(bounds, top, bottom - top,
+              settings.layers.get(layer).usesMapColors()));
+        }
+        renderRegions(settings, bands.get(z - first), band);
+        for(int layer=0; layer < pngs.size(); ++layer) {
+          band.get(layer).writeRows(pngs.get(layer));
+        }
+      }
+      for(PngWriter png: pngs) {
+        png.close();
+      }
+      done = true;
+    } finally {
+      if (!done) {
+        for(PngWriter png: pngs) {
+          try {
+            png.close();
+          } catch (IOException e) {
+            // the original failure is more useful than the missing rows
+          }
+        }
+      }
+    }
+  }
+
+  static class RegionFile {
     final int x;
     final int z;
     final File filename;
@@ -196,16 +358,26 @@ public class MapMaker {
     }
   }
 
-  private static class RegionList {
+  static class RegionList {
     final List<RegionFile> filenames;
     int minX = Integer.MAX_VALUE;
     int maxX = Integer.MIN_VALUE;
     int minZ = Integer.MAX_VALUE;
     int maxZ = Integer.MIN_VALUE;
-    RegionList(File... files) throws IOException {
+
+    /**
+     * Find the region files, using their names to skip the ones that are
+     * outside of the bounds without opening them.
+     * @param bounds the chunks to render or null for all of them
+     * @param files the region files
+     */
+    RegionList(Bounds bounds, File... files) throws IOException {
       filenames = new ArrayList<RegionFile>(files.length);
       for(File file: files) {
-        filenames.add(new RegionFile(file));
+        RegionFile region = new RegionFile(file);
+        if (bounds == null || bounds.containsRegion(region.x, region.z)) {
+          filenames.add(region);
+        }
       }
       for(RegionFile file: filenames) {
         minX = Math.min(minX, file.x);
@@ -217,189 +389,146 @@ public class MapMaker {
   }
 
   /**
-   * Pick the color variant depending on the height. These values were picked
-   * by finding the quartiles of the surface level in a large map built by
-   * the default generator.
-   * @param y the elevation
-   * @return 0, 1, 2, or 3 for the map color variants
+   * Wait for all of the tasks to finish and rethrow the first failure.
+   * @param results the tasks to wait for
    */
-  private static int getColorVariant(int y) {
-    if (y <= 62) {
-      return 3;
-    } else if (y <= 68) {
-      return 0;
-    } else if (y <= 74) {
-      return 1;
-    } else {
-      return 2;
+  static void waitFor(List<Future<Void>> results) throws Exception {
+    for (Future<Void> result : results) {
+      try {
+        result.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
     }
   }
 
   /**
-   * Get the map color for a given kind of object.
-   * @param kind the kind of object in the location
-   * @return a base map color number
+   * The settings that are shared by all of the regions in a render.
    */
-  private static int getColorByCubeKind(ID kind) {
-    if (kind == null) {
-      return 0;
+  static class Settings {
+    final ExecutorService pool;
+    /**
+     * The number of threads in the pool.
+     */
+    final int threads;
+    final BlockColors blockColors;
+    final List<RenderLayer> layers;
+    /**
+     * The directory of cached region renders or null to render everything.
+     */
+    final File cacheDirectory;
+    /**
+     * The chunks to render.
+     */
+    final Bounds bounds;
+    /**
+     * Only read the Biomes and HeightMap arrays of each chunk.
+     */
+    final boolean preview;
+    /**
+     * The dimension that the regions are from.
+     */
+    final Level.Player.Dimension dimension;
+    final RenderPipeline.Stats stats = new RenderPipeline.Stats();
+    /**
+     * The region edges that are kept from one render to the next, so that
+     * the bands of a streamed image shade across their borders.
+     */
+    final RenderPipeline.Edges edges = new RenderPipeline.Edges();
+
+    Settings(ExecutorService pool, int threads, BlockColors blockColors,
+             List<RenderLayer> layers, File cacheDirectory, Bounds bounds) {
+      this(pool, threads, blockColors, layers, cacheDirectory, bounds, false,
+          Level.Player.Dimension.Overworld);
     }
-    switch (kind) {
-      case GRASS:
-      case MYCELIUM:
-        return 1;
-
-      case SAND:
-      case GRAVEL:
-      case SOULSAND:
-        return 2;
-
-      case SPONGE:
-      case BED:
-      case COBWEB:
-        return 3;
-
-      case LAVA:
-      case TNT:
-        return 4;
-
-      case ICE:
-      case PACKED_ICE:
-        return 5;
-
-      case IRON_BLOCK:
-      case REDSTONE_BLOCK:
-      case IRON_DOOR:
-      case IRON_BARS:
-      case BREWING_STAND:
-      case CAULDRON:
-        return 6;
-
-      case SAPLING:
-      case LEAVES:
-      case ACACIA_LEAVES:
-      case TALL_GRASS:
-      case DEAD_BUSH:
-      case DANDELION:
-      case ROSE:
-      case BROWN_MUSHROOM:
-      case RED_MUSHROOM:
-      case MELON_SEEDS:
-      case PUMPKIN_SEEDS:
-      case WHEAT_SEEDS:
-      case CACTUS:
-      case SUGARCANE:
-      case PUMPKIN:
-      case JACKOLANTERN:
-      case MELON:
-      case PUMPKIN_STEM:
-      case MELON_STEM:
-      case VINES:
-      case LILY_PAD:
-      case NETHER_WART:
-      case DRAGON_EGG:
-        return 7;
-
-      case SNOW:
-      case SNOW_BLOCK:
-      case QUARTZ_BLOCK:
-        return 8;
-
-      case CLAY:
-      case MONSTER_EGG:
-        return 9;
-
-      case DIRT:
-      case FARMLAND:
-        return 10;
-
-      case STONE:
-      case COBBLESTONE:
-      case BEDROCK:
-      case GOLD_ORE:
-      case IRON_ORE:
-      case COAL_ORE:
-      case COAL_BLOCK:
-      case LAPIS_LAZULI_ORE:
-      case DISPENSER:
-      case SANDSTONE:
-      case STICKY_PISTON:
-      case PISTON:
-      case PISTON_EXTENSION:
-      case PISTON_MOVING:
-      case DOUBLE_SLAB:
-      case SLAB:
-      case BRICKS:
-      case MOSS_STONE:
-      case MONSTER_SPAWNER:
-      case FURNACE:
-      case COBBLESTONE_STAIRS:
-      case STONE_PRESSURE_PLATE:
-      case REDSTONE_ORE:
-      case STONE_BRICKS:
-      case BRICK_STAIRS:
-      case STONE_BRICK_STAIRS:
-      case NETHER_BRICK:
-      case NETHER_BRICK_FENCE:
-      case NETHER_BRICK_STAIRS:
-      case ENCHANTMENT_TABLE:
-      case ENDSTONE:
-        return 11;
-
-      case WATER:
-        return 12;
-
-      case WOODEN_PLANK:
-      case WOOD:
-      case NOTE_BLOCK:
-      case BOOKSHELF:
-      case ACACIA_WOOD_STAIRS:
-      case BIRCH_WOOD_STAIRS:
-      case DARK_OAK_WOOD_STAIRS:
-      case JUNGLE_WOOD_STAIRS:
-      case OAK_WOOD_STAIRS:
-      case SPRUCE_WOOD_STAIRS:
-      case CHEST:
-      case CRAFTING_TABLE:
-      case SIGNPOST:
-      case WOODEN_DOOR:
-      case WALLSIGN:
-      case WOODEN_PRESSURE_PLATE:
-      case JUKEBOX:
-      case FENCE:
-      case LOCKED_CHEST:
-      case TRAPDOOR:
-      case HUGE_BROWN_MUSHROOM:
-      case HUGE_RED_MUSHROOM:
-      case FENCE_GATE:
-        return 13;
-
-      case WOOL:
-      case STAINED_HARDENED_CLAY:
-        return 14;
-
-      case GOLD_BLOCK:
-        return 30;
-
-      case DIAMOND_ORE:
-      case DIAMOND_BLOCK:
-        return 31;
-
-      case LAPIS_LAZULI_BLOCK:
-        return 32;
-
-      case EMERALD_BLOCK:
-        return 33;
-
-      case OBSIDIAN:
-        return 34;
-
-      case NETHERRACK:
-        return 35;
-
-      default:
-        return 0;
+
+    Settings(ExecutorService pool, int threads, BlockColors blockColors,
+             List<RenderLayer> layers, File cacheDirectory, Bounds bounds,
+             boolean preview, Level.Player.Dimension dimension) {
+      this.pool = pool;
+      this.threads = threads;
+      this.blockColors = blockColors;
+      this.layers = layers;
+      this.cacheDirectory = cacheDirectory;
+      this.bounds = bounds;
+      this.preview = preview;
+      this.dimension = dimension;
+    }
+
+    /**
+     * The height to start looking down for the surface from, which is just
+     * below the bedrock roof in the Nether.
+     * @return the height or -1 to use the top most colored block
+     */
+    int getCeiling() {
+      return dimension == Level.Player.Dimension.Nether ? NETHER_CEILING : -1;
+    }
+  }
+
+  /**
+   * Render the regions through the pipeline and send each one to the sinks.
+   * @param sinks a sink for each of the settings' layers in the same order
+   */
+  static void renderRegions(Settings settings,
+                            List<RegionFile> files,
+                            List<? extends RegionSink> sinks)
+      throws Exception {
+    new RenderPipeline(settings, settings.threads).run(files, sinks);
+  }
+
+  /**
+   * Get the directory of a dimension's region files. The Overworld is in
+   * "region" and the others are in "DIM&lt;id&gt;/region".
+   */
+  static File getRegionDirectory(File saveDir, Level.Player.Dimension dim) {
+    return dim == Level.Player.Dimension.Overworld ?
+        new File(saveDir, "region") :
+        new File(new File(saveDir, "DIM" + dim.ID()), "region");
+  }
+
+  /**
+   * Get the base of the output names for a dimension. The Overworld keeps
+   * the save's name and the others add the dimension's name to it.
+   */
+  static String getDimensionName(String save, Level.Player.Dimension dim) {
+    return dim == Level.Player.Dimension.Overworld ? save :
+        save + "-" + dim.name().toLowerCase();
+  }
+
+  /**
+   * Parse a comma separated list of dimensions such as "overworld,nether".
+   */
+  static List<Level.Player.Dimension> parseDimensions(String spec) {
+    List<Level.Player.Dimension> result =
+        new ArrayList<Level.Player.Dimension>();
+    for(String part: spec.split(",")) {
+      Level.Player.Dimension dimension = null;
+      for(Level.Player.Dimension dim: Level.Player.Dimension.values()) {
+        if (dim.name().equalsIgnoreCase(part.trim())) {
+          dimension = dim;
+        }
+      }
+      if (dimension == null) {
+        throw new IllegalArgumentException("Unknown dimension " + part);
+      } else if (!result.contains(dimension)) {
+        result.add(dimension);
+      }
     }
+    return result;
+  }
+
+  /**
+   * Get the name of a layer's output. The surface layer keeps the plain
+   * name, so the default output doesn't change.
+   * @param base the name for the surface layer
+   * @param suffix the extension to add after the layer's name
+   */
+  static String getOutputName(String base, RenderLayer layer, String suffix) {
+    return RenderLayers.SURFACE.equals(layer.getName()) ? base + suffix :
+        base + "-" + layer.getName() + suffix;
   }
 
   public static void main(String[] args) throws Exception {
@@ -407,32 +536,160 @@ public class MapMaker {
     String HOME = System.getProperty("user.home");
     jsap.registerParameter(new Switch("help", 'h', "help",
         "provide help"));
+    jsap.registerParameter(new FlaggedOption("palette", JSAP.STRING_PARSER,
+        null, false, 'p', "palette",
+        "file of 'block[:data] color' lines overriding the map colors"));
+    jsap.registerParameter(new FlaggedOption("threads", JSAP.INTEGER_PARSER,
+        Integer.toString(Runtime.getRuntime().availableProcessors()), false,
+        'T', "threads", "number of regions to render at once"));
+    jsap.registerParameter(new Switch("tiles", 't', "tiles",
+        "write a directory of 256x256 map tiles instead of one image"));
+    jsap.registerParameter(new Switch("stream", 's', "stream",
+        "write the image one row of regions at a time to save memory"));
+    jsap.registerParameter(new Switch("incremental", 'i', "incremental",
+        "only render the chunks that changed since the last incremental run"));
+    jsap.registerParameter(new FlaggedOption("bbox", JSAP.STRING_PARSER,
+        null, false, 'b', "bbox",
+        "only render the blocks in the box x1,z1,x2,z2"));
+    jsap.registerParameter(new FlaggedOption("center", JSAP.STRING_PARSER,
+        null, false, 'c', "center",
+        "only render the blocks within the radius of x,z"));
+    jsap.registerParameter(new FlaggedOption("radius", JSAP.INTEGER_PARSER,
+        null, false, 'r', "radius", "the radius in blocks for --center"));
+    jsap.registerParameter(new FlaggedOption("layers", JSAP.STRING_PARSER,
+        RenderLayers.SURFACE, false, 'L', "layers",
+        "comma separated layers to draw from surface, hillshade, biome, " +
+        "height, night, cave:y, and depth"));
+    jsap.registerParameter(new FlaggedOption("dimensions", JSAP.STRING_PARSER,
+        "overworld,nether,end", false, 'd', "dimensions",
+        "comma separated dimensions to draw from overworld, nether, and end"));
+    jsap.registerParameter(new Switch("preview", 'P', "preview",
+        "quickly draw the biomes shaded by height without reading the blocks"));
     jsap.registerParameter(new UnflaggedOption("directory", JSAP.STRING_PARSER,
         HOME + "/Library/Application Support/minecraft/saves/Creative", true,
         true, "list of save game directories"));
     JSAPResult options = jsap.parse(args);
+    if (options.getInt("threads", 1) < 1) {
+      options.addException("threads",
+          new IllegalArgumentException("--threads must be at least 1"));
+    }
+    if (options.contains("center") != options.contains("radius")) {
+      options.addException("radius",
+          new IllegalArgumentException("--center and --radius go together"));
+    } else if (options.contains("center") && options.contains("bbox")) {
+      options.addException("bbox",
+          new IllegalArgumentException("Use either --bbox or --center"));
+    } else if (options.getBoolean("preview") &&
+        options.userSpecified("layers")) {
+      options.addException("layers",
+          new IllegalArgumentException("Use either --layers or --preview"));
+    }
+    Bounds requested = null;
+    if (options.success()) {
+      if (options.contains("bbox")) {
+        try {
+          requested = Bounds.parseBox(options.getString("bbox"));
+        } catch (IllegalArgumentException e) {
+          options.addException("bbox", e);
+        }
+      } else if (options.contains("center")) {
+        try {
+          requested = Bounds.parseCircle(options.getString("center"),
+              options.getInt("radius"));
+        } catch (IllegalArgumentException e) {
+          options.addException("center", e);
+        }
+      }
+    }
 
     if (options.success() && !options.getBoolean("help")) {
-      for(String dir: options.getStringArray("directory")) {
-        File saveDir = new File(dir);
-        if (!saveDir.exists() || !saveDir.isDirectory()) {
-           System.err.println("Bad save game directory - " + dir);
-        } else {
-          // get the list of region files
-          File regionDir = new File(saveDir, "region");
-          RegionList regions = new RegionList(regionDir.listFiles());
-          MapMaker map = new MapMaker(regions.minX,
-              regions.maxX - regions.minX + 1,
-              regions.minZ,
-              regions.maxZ - regions.minZ + 1);
-          for (RegionFile file : regions.filenames) {
-            Region region = new Region(file.filename);
-            map.drawRegion(region, file.x, file.z);
+      BlockColors blockColors = options.contains("palette") ?
+          new BlockColors(new File(options.getString("palette"))) :
+          new BlockColors();
+      boolean preview = options.getBoolean("preview");
+      List<RenderLayer> layers = preview ?
+          RenderLayers.parse(RenderLayers.PREVIEW, blockColors) :
+          RenderLayers.parse(options.getString("layers"), blockColors);
+      List<Level.Player.Dimension> dimensions =
+          parseDimensions(options.getString("dimensions"));
+      int threads = options.getInt("threads");
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+        for(String dir: options.getStringArray("directory")) {
+          File saveDir = new File(dir);
+          if (!saveDir.exists() || !saveDir.isDirectory()) {
+             System.err.println("Bad save game directory - " + dir);
+          } else {
+            int rendered = 0;
+            for(Level.Player.Dimension dimension: dimensions) {
+              // get the list of region files
+              File regionDir = getRegionDirectory(saveDir, dimension);
+              if (!regionDir.isDirectory()) {
+                continue;
+              }
+              RegionList regions =
+                  new RegionList(requested, regionDir.listFiles());
+              if (regions.filenames.isEmpty()) {
+                continue;
+              }
+              rendered += 1;
+              String name = getDimensionName(saveDir.getName(), dimension);
+              // without bounds, cover every region that exists
+              Bounds bounds = requested != null ? requested :
+                  Bounds.ofRegions(regions.minX, regions.maxX,
+                      regions.minZ, regions.maxZ);
+              File cacheDir = null;
+              if (options.getBoolean("incremental")) {
+                cacheDir = new File(name + "-map.cache");
+                if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+                  throw new IOException("Can't create directory " + cacheDir);
+                }
+              }
+              Settings settings = new Settings(pool, threads, blockColors,
+                  layers, cacheDir, bounds, preview, dimension);
+              if (options.getBoolean("tiles")) {
+                List<TileOutput> tiles = new ArrayList<TileOutput>();
+                for(RenderLayer layer: layers) {
+                  File tileDir = new File(getOutputName(name + "-tiles",
+                      layer, ""));
+                  System.out.println("Writing tiles to " + tileDir);
+                  tiles.add(new TileOutput(tileDir, bounds));
+                }
+                renderRegions(settings, regions.filenames, tiles);
+                for(TileOutput tile: tiles) {
+                  tile.finish(pool);
+                }
+              } else if (options.getBoolean("stream")) {
+                List<String> mapNames = new ArrayList<String>();
+                for(RenderLayer layer: layers) {
+                  String mapName = getOutputName(name + "-map",
+                      layer, ".png");
+                  System.out.println("Streaming map to " + mapName);
+                  mapNames.add(mapName);
+                }
+                streamImage(settings, regions, mapNames);
+              } else {
+                List<MapMaker> maps = new ArrayList<MapMaker>();
+                for(RenderLayer layer: layers) {
+                  maps.add(new MapMaker(bounds, layer.usesMapColors()));
+                }
+                renderRegions(settings, regions.filenames, maps);
+                for(int layer=0; layer < layers.size(); ++layer) {
+                  String mapName = getOutputName(name + "-map",
+                      layers.get(layer), ".png");
+                  System.out.println("Writing map to " + mapName);
+                  maps.get(layer).saveImage(mapName);
+                }
+              }
+              settings.stats.report(System.out);
+            }
+            if (rendered == 0) {
+              System.err.println("No regions to render in " + dir);
+            }
           }
-          String mapName = saveDir.getName() + "-map.png";
-          System.out.println("Writing map to " + mapName);
-          map.saveImage(mapName);
         }
+      } finally {
+        pool.shutdownNow();
       }
     } else {
       for (Iterator errs = options.getErrorMessageIterator();
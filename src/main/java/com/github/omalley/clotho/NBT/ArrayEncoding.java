@@ -0,0 +1,510 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho.NBT;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * How byte and int arrays are written as Json. The arrays in a chunk's
+ * sections dominate the size of a dump, so the more compact encodings
+ * matter more than anything else for chunks. The hex, base64, and rle
+ * encodings can be read back.
+ */
+public abstract class ArrayEncoding {
+  static final String HEX_NAME = "hex";
+  static final String BASE64_NAME = "base64";
+  static final String RLE_NAME = "rle";
+  static final String SUMMARY_NAME = "summary";
+  static final String OMIT_NAME = "omit";
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+  private static final char[] BASE64_DIGITS =
+      ("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/")
+          .toCharArray();
+  private static final byte[] DIGIT_VALUES = new byte[128];
+
+  static {
+    Arrays.fill(DIGIT_VALUES, (byte) -1);
+    for (int i = 0; i < BASE64_DIGITS.length; ++i) {
+      DIGIT_VALUES[BASE64_DIGITS[i]] = (byte) i;
+    }
+  }
+
+  /**
+   * Byte arrays as upper case hex digits and int arrays as lists of
+   * numbers.
+   */
+  public static final ArrayEncoding HEX = new ArrayEncoding(HEX_NAME) {
+    @Override
+    public void write(JsonWriter writer, byte[] bytes) throws IOException {
+      writer.value(hex(bytes));
+    }
+
+    @Override
+    public void write(JsonWriter writer, int[] ints) throws IOException {
+      writer.beginArray();
+      for (int value : ints) {
+        writer.value(value);
+      }
+      writer.endArray();
+    }
+
+    @Override
+    public byte[] readBytes(JsonReader reader) throws IOException,
+        FormatException {
+      String digits = reader.nextString();
+      if (digits.length() % 2 != 0) {
+        throw new FormatException("Odd number of hex digits");
+      }
+      byte[] result = new byte[digits.length() / 2];
+      for (int i = 0; i < result.length; ++i) {
+        result[i] = (byte) (digit(digits.charAt(2 * i), 16) << 4 |
+            digit(digits.charAt(2 * i + 1), 16));
+      }
+      return result;
+    }
+
+    @Override
+    public int[] readInts(JsonReader reader) throws IOException {
+      int[] result = new int[16];
+      int length = 0;
+      reader.beginArray();
+      while (reader.hasNext()) {
+        if (length == result.length) {
+          result = Arrays.copyOf(result, length * 2);
+        }
+        result[length++] = reader.nextInt();
+      }
+      reader.endArray();
+      return Arrays.copyOf(result, length);
+    }
+  };
+
+  /**
+   * Both kinds of arrays as padded base64 strings, with each int as four
+   * big endian bytes.
+   */
+  public static final ArrayEncoding BASE64 = new ArrayEncoding(BASE64_NAME) {
+    @Override
+    public void write(JsonWriter writer, byte[] bytes) throws IOException {
+      writer.value(base64(bytes));
+    }
+
+    @Override
+    public void write(JsonWriter writer, int[] ints) throws IOException {
+      writer.value(base64(toBytes(ints)));
+    }
+
+    @Override
+    public byte[] readBytes(JsonReader reader) throws IOException,
+        FormatException {
+      return unbase64(reader.nextString());
+    }
+
+    @Override
+    public int[] readInts(JsonReader reader) throws IOException,
+        FormatException {
+      return toInts(unbase64(reader.nextString()));
+    }
+  };
+
+  /**
+   * Both kinds of arrays as lists of run lengths each followed by the
+   * value that repeats, with bytes as unsigned values.
+   */
+  public static final ArrayEncoding RLE = new ArrayEncoding(RLE_NAME) {
+    @Override
+    public void write(JsonWriter writer, byte[] bytes) throws IOException {
+      writer.beginArray();
+      int start = 0;
+      while (start < bytes.length) {
+        int end = start + 1;
+        while (end < bytes.length && bytes[end] == bytes[start]) {
+          end += 1;
+        }
+        writer.value(end - start);
+        writer.value(bytes[start] & 0xff);
+        start = end;
+      }
+      writer.endArray();
+    }
+
+    @Override
+    public void write(JsonWriter writer, int[] ints) throws IOException {
+      writer.beginArray();
+      int start = 0;
+      while (start < ints.length) {
+        int end = start + 1;
+        while (end < ints.length && ints[end] == ints[start]) {
+          end += 1;
+        }
+        writer.value(end - start);
+        writer.value(ints[start]);
+        start = end;
+      }
+      writer.endArray();
+    }
+
+    @Override
+    public byte[] readBytes(JsonReader reader) throws IOException,
+        FormatException {
+      byte[] result = new byte[16];
+      int length = 0;
+      reader.beginArray();
+      while (reader.hasNext()) {
+        int run = readRun(reader, length);
+        byte value = (byte) reader.nextInt();
+        if (length + run > result.length) {
+          result = Arrays.copyOf(result,
+              Math.max(length + run, result.length * 2));
+        }
+        Arrays.fill(result, length, length + run, value);
+        length += run;
+      }
+      reader.endArray();
+      return Arrays.copyOf(result, length);
+    }
+
+    @Override
+    public int[] readInts(JsonReader reader) throws IOException,
+        FormatException {
+      int[] result = new int[16];
+      int length = 0;
+      reader.beginArray();
+      while (reader.hasNext()) {
+        int run = readRun(reader, length);
+        int value = reader.nextInt();
+        if (length + run > result.length) {
+          result = Arrays.copyOf(result,
+              Math.max(length + run, result.length * 2));
+        }
+        Arrays.fill(result, length, length + run, value);
+        length += run;
+      }
+      reader.endArray();
+      return Arrays.copyOf(result, length);
+    }
+
+    private int readRun(JsonReader reader,
+                        int length) throws IOException, FormatException {
+      int run = reader.nextInt();
+      if (run <= 0 || run > Integer.MAX_VALUE - 8 - length) {
+        throw new FormatException("Bad run length " + run);
+      }
+      return run;
+    }
+  };
+
+  /**
+   * Only the number of elements and the CRC32 of the bytes as
+   * {"length":n,"crc32":"hex"}, which is enough to tell whether arrays
+   * changed.
+   */
+  public static final ArrayEncoding SUMMARY = new ArrayEncoding(SUMMARY_NAME) {
+    @Override
+    public void write(JsonWriter writer, byte[] bytes) throws IOException {
+      summarize(writer, bytes.length, bytes);
+    }
+
+    @Override
+    public void write(JsonWriter writer, int[] ints) throws IOException {
+      summarize(writer, ints.length, toBytes(ints));
+    }
+
+    private void summarize(JsonWriter writer, int length,
+                           byte[] bytes) throws IOException {
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, bytes.length);
+      writer.beginObject();
+      writer.name("length").value(length);
+      writer.name("crc32").value(String.format("%08X", crc.getValue()));
+      writer.endObject();
+    }
+  };
+
+  private final String name;
+
+  ArrayEncoding(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Write a byte array.
+   *
+   * @param writer the stream to write to
+   * @param bytes  the array to write
+   */
+  public abstract void write(JsonWriter writer,
+                             byte[] bytes) throws IOException;
+
+  /**
+   * Write an int array.
+   *
+   * @param writer the stream to write to
+   * @param ints   the array to write
+   */
+  public abstract void write(JsonWriter writer,
+                             int[] ints) throws IOException;
+
+  /**
+   * Read a byte array that was written in this encoding.
+   *
+   * @param reader the stream to read from
+   * @return the array
+   * @throws FormatException if the encoding doesn't keep the array's values
+   */
+  public byte[] readBytes(JsonReader reader) throws IOException,
+      FormatException {
+    throw new FormatException("Arrays written as " + name +
+        " can't be read back");
+  }
+
+  /**
+   * Read an int array that was written in this encoding.
+   *
+   * @param reader the stream to read from
+   * @return the array
+   * @throws FormatException if the encoding doesn't keep the array's values
+   */
+  public int[] readInts(JsonReader reader) throws IOException,
+      FormatException {
+    throw new FormatException("Arrays written as " + name +
+        " can't be read back");
+  }
+
+  /**
+   * Write arrays that are larger than a limit as null and the others in
+   * this encoding.
+   *
+   * @param limit the largest array in bytes to write
+   * @return the new encoding
+   */
+  public ArrayEncoding omitAbove(final long limit) {
+    final ArrayEncoding inner = this;
+    return new ArrayEncoding(name + "," + OMIT_NAME + ":" + limit) {
+      @Override
+      public void write(JsonWriter writer, byte[] bytes) throws IOException {
+        if (bytes.length > limit) {
+          writer.nullValue();
+        } else {
+          inner.write(writer, bytes);
+        }
+      }
+
+      @Override
+      public void write(JsonWriter writer, int[] ints) throws IOException {
+        if (4L * ints.length > limit) {
+          writer.nullValue();
+        } else {
+          inner.write(writer, ints);
+        }
+      }
+
+      @Override
+      public byte[] readBytes(JsonReader reader) throws IOException,
+          FormatException {
+        checkNotOmitted(reader);
+        return inner.readBytes(reader);
+      }
+
+      @Override
+      public int[] readInts(JsonReader reader) throws IOException,
+          FormatException {
+        checkNotOmitted(reader);
+        return inner.readInts(reader);
+      }
+
+      private void checkNotOmitted(JsonReader reader) throws IOException,
+          FormatException {
+        if (reader.peek() == JsonToken.NULL) {
+          throw new FormatException("Array was omitted");
+        }
+      }
+    };
+  }
+
+  /**
+   * Parse an encoding such as "base64" or "rle,omit:4096". The omit part
+   * writes arrays larger than that many bytes as null.
+   *
+   * @param spec the encoding name and an optional limit
+   * @return the encoding
+   */
+  public static ArrayEncoding parse(String spec) {
+    ArrayEncoding result = null;
+    long limit = -1;
+    for (String part : spec.split(",")) {
+      String[] words = part.trim().split(":");
+      String name = words[0].toLowerCase();
+      if (OMIT_NAME.equals(name)) {
+        if (words.length != 2 || limit >= 0) {
+          throw new IllegalArgumentException("Omit needs one size as omit:n");
+        }
+        try {
+          limit = Long.parseLong(words[1]);
+        } catch (NumberFormatException e) {
+          limit = -1;
+        }
+        if (limit < 0) {
+          throw new IllegalArgumentException("Bad omit size " + words[1]);
+        }
+      } else if (words.length > 1) {
+        throw new IllegalArgumentException("Array encoding " + name +
+            " doesn't take a value");
+      } else if (result != null) {
+        throw new IllegalArgumentException("Only one array encoding in " +
+            spec);
+      } else if (HEX_NAME.equals(name)) {
+        result = HEX;
+      } else if (BASE64_NAME.equals(name)) {
+        result = BASE64;
+      } else if (RLE_NAME.equals(name)) {
+        result = RLE;
+      } else if (SUMMARY_NAME.equals(name)) {
+        result = SUMMARY;
+      } else {
+        throw new IllegalArgumentException("Unknown array encoding " + name);
+      }
+    }
+    if (result == null) {
+      result = HEX;
+    }
+    return limit >= 0 ? result.omitAbove(limit) : result;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * Encode bytes as upper case hex digits.
+   */
+  static String hex(byte[] bytes) {
+    char[] result = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; ++i) {
+      result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+      result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+    }
+    return new String(result);
+  }
+
+  /**
+   * Encode bytes as padded base64.
+   */
+  static String base64(byte[] bytes) {
+    char[] result = new char[(bytes.length + 2) / 3 * 4];
+    int out = 0;
+    int i = 0;
+    for (; i + 2 < bytes.length; i += 3) {
+      int group = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 |
+          (bytes[i + 2] & 0xff);
+      result[out++] = BASE64_DIGITS[group >>> 18];
+      result[out++] = BASE64_DIGITS[(group >>> 12) & 0x3f];
+      result[out++] = BASE64_DIGITS[(group >>> 6) & 0x3f];
+      result[out++] = BASE64_DIGITS[group & 0x3f];
+    }
+    int left = bytes.length - i;
+    if (left > 0) {
+      int group = (bytes[i] & 0xff) << 16 |
+          (left == 2 ? (bytes[i + 1] & 0xff) << 8 : 0);
+      result[out++] = BASE64_DIGITS[group >>> 18];
+      result[out++] = BASE64_DIGITS[(group >>> 12) & 0x3f];
+      result[out++] = left == 2 ? BASE64_DIGITS[(group >>> 6) & 0x3f] : '=';
+      result[out] = '=';
+    }
+    return new String(result);
+  }
+
+  /**
+   * Decode padded or unpadded base64.
+   */
+  static byte[] unbase64(String digits) throws FormatException {
+    int end = digits.length();
+    while (end > 0 && digits.charAt(end - 1) == '=') {
+      end -= 1;
+    }
+    if (end % 4 == 1 || digits.length() - end > 2) {
+      throw new FormatException("Bad base64 length " + digits.length());
+    }
+    byte[] result = new byte[end * 3 / 4];
+    int group = 0;
+    int out = 0;
+    for (int i = 0; i < end; ++i) {
+      group = group << 6 | digit(digits.charAt(i), 64);
+      if (i % 4 == 3) {
+        result[out++] = (byte) (group >> 16);
+        result[out++] = (byte) (group >> 8);
+        result[out++] = (byte) group;
+        group = 0;
+      }
+    }
+    if (end % 4 == 2) {
+      result[out] = (byte) (group >> 4);
+    } else if (end % 4 == 3) {
+      result[out++] = (byte) (group >> 10);
+      result[out] = (byte) (group >> 2);
+    }
+    return result;
+  }
+
+  /**
+   * Find the value of a hex or base64 digit.
+   */
+  private static int digit(char ch, int base) throws FormatException {
+    int result = -1;
+    if (base == 16) {
+      result = Character.digit(ch, 16);
+    } else if (ch < DIGIT_VALUES.length) {
+      result = DIGIT_VALUES[ch];
+    }
+    if (result < 0) {
+      throw new FormatException("Bad base " + base + " digit '" + ch + "'");
+    }
+    return result;
+  }
+
+  /**
+   * Read back ints that were laid out as big endian bytes.
+   */
+  static int[] toInts(byte[] bytes) throws FormatException {
+    if (bytes.length % 4 != 0) {
+      throw new FormatException("Int array of " + bytes.length + " bytes");
+    }
+    int[] result = new int[bytes.length / 4];
+    ByteBuffer.wrap(bytes).asIntBuffer().get(result);
+    return result;
+  }
+
+  /**
+   * Lay out ints as big endian bytes, like NBT does.
+   */
+  static byte[] toBytes(int[] ints) {
+    byte[] result = new byte[ints.length * 4];
+    for (int i = 0; i < ints.length; ++i) {
+      result[4 * i] = (byte) (ints[i] >> 24);
+      result[4 * i + 1] = (byte) (ints[i] >> 16);
+      result[4 * i + 2] = (byte) (ints[i] >> 8);
+      result[4 * i + 3] = (byte) ints[i];
+    }
+    return result;
+  }
+}
@@ -13,9 +13,19 @@
  */
 package com.github.omalley.clotho.NBT;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -80,6 +90,518 @@ public final class IO {
 		nbt.Serialize(o);
 	}
 
+	/**
+	 * Reads only some of the tags of an uncompressed NBT structure. The other tags are skipped over without being built, and reading stops as soon as every wanted tag has been found, so the rest of the stream may be left unread.
+	 * @param i The <code>InputStream</code> to read the uncompressed NBT structure from.
+	 * @param paths The wanted tags as their names below the root separated by '/', such as "Level/Biomes". The compound tags along each path are kept with only their wanted children.
+	 * @return The root compound tag with only the wanted tags.
+	 * @throws java.io.IOException if the input operation generates an exception.
+	 * @throws FormatException if the NBT structure is invalid.
+	 */
+	public static Tag.Compound ReadSelected(InputStream i, String... paths) throws IOException, FormatException
+	{
+		int ch = i.read();
+		if(ch == -1)
+		{
+			throw new FormatException("Unexpected end of stream before reading root tag");
+		}
+		else if(ch != Tag.Type.COMPOUND.ordinal())
+		{
+			throw new FormatException("Root tag was not a Compound tag; tag ID was "+ch);
+		}
+		Set<String> leaves = new HashSet<>(Arrays.asList(paths));
+		Set<String> branches = new HashSet<>();
+		for(String path : paths)
+		{
+			for(int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1))
+			{
+				branches.add(path.substring(0, slash));
+			}
+		}
+		DataInputStream in = new DataInputStream(i);
+		Tag.Compound root = new Tag.Compound(new Tag.StringTag(null, in).v);
+		ReadSelected(in, root, "", leaves, branches, new int[] {leaves.size()});
+		return root;
+	}
+	/**
+	 * Reads the children of a compound tag, keeping the wanted ones.
+	 * @param in The stream positioned after the compound tag's name.
+	 * @param parent The compound tag to add the wanted children to.
+	 * @param prefix The path of the compound tag followed by '/', or empty for the root.
+	 * @param leaves The paths of the wanted tags.
+	 * @param branches The paths of the compound tags that hold wanted tags.
+	 * @param remaining The number of wanted tags that have not been found yet.
+	 * @return Whether every wanted tag has been found.
+	 */
+	private static boolean ReadSelected(DataInputStream in, Tag.Compound parent, String prefix, Set<String> leaves, Set<String> branches, int[] remaining) throws IOException, FormatException
+	{
+		Tag.Type t;
+		while((t = ReadType(in)) != Tag.Type.END)
+		{
+			String n = new Tag.StringTag(null, in).v;
+			String path = prefix + n;
+			if(leaves.contains(path))
+			{
+				try
+				{
+					parent.Add(t.ToClass().getConstructor(String.class, InputStream.class).newInstance(n, in));
+				}
+				catch(ReflectiveOperationException e)
+				{
+					if(e.getCause() instanceof IOException)
+					{
+						throw (IOException) e.getCause();
+					}
+					else if(e.getCause() instanceof FormatException)
+					{
+						throw (FormatException) e.getCause();
+					}
+					throw new FormatException("Exception while deserializing tag " + path, e);
+				}
+				if(--remaining[0] == 0)
+				{
+					return true;
+				}
+			}
+			else if(t == Tag.Type.COMPOUND && branches.contains(path))
+			{
+				Tag.Compound child = new Tag.Compound(n);
+				parent.Add(child);
+				if(ReadSelected(in, child, path + "/", leaves, branches, remaining))
+				{
+					return true;
+				}
+			}
+			else
+			{
+				Skip(in, t);
+			}
+		}
+		return false;
+	}
+	/**
+	 * Reads the type of the next tag inside a compound or list tag.
+	 * @param in The stream positioned at the type.
+	 * @return The type of the tag.
+	 * @throws java.io.IOException if the stream ends.
+	 * @throws FormatException if the type is unknown.
+	 */
+	public static Tag.Type ReadType(DataInputStream in) throws IOException, FormatException
+	{
+		int ch = in.read();
+		if(ch == -1)
+		{
+			throw new EOFException("Unexpected end of stream inside a Compound tag");
+		}
+		try
+		{
+			return Tag.Type.FromID(ch);
+		}
+		catch(IndexOutOfBoundsException e)
+		{
+			throw new FormatException("Unknown tag ID " + ch, e);
+		}
+	}
+	/**
+	 * Skips over the payload of a tag without building it.
+	 * @param in The stream positioned at the payload.
+	 * @param t The type of the tag.
+	 * @throws java.io.IOException if the stream ends.
+	 * @throws FormatException if the payload is invalid.
+	 */
+	public static void Skip(DataInputStream in, Tag.Type t) throws IOException, FormatException
+	{
+		switch(t)
+		{
+			case END:
+				break;
+			case BYTE:
+				SkipFully(in, 1);
+				break;
+			case SHORT:
+				SkipFully(in, 2);
+				break;
+			case INT:
+			case FLOAT:
+				SkipFully(in, 4);
+				break;
+			case LONG:
+			case DOUBLE:
+				SkipFully(in, 8);
+				break;
+			case BYTEARRAY:
+				SkipFully(in, in.readInt());
+				break;
+			case STRING:
+				SkipFully(in, in.readUnsignedShort());
+				break;
+			case INTARRAY:
+				SkipFully(in, 4L * in.readInt());
+				break;
+			case LIST:
+				Tag.Type element = ReadType(in);
+				int length = in.readInt();
+				for(int i = 0; i < length; ++i)
+				{
+					Skip(in, element);
+				}
+				break;
+			case COMPOUND:
+				Tag.Type child;
+				while((child = ReadType(in)) != Tag.Type.END)
+				{
+					SkipFully(in, in.readUnsignedShort());
+					Skip(in, child);
+				}
+				break;
+		}
+	}
+	private static void SkipFully(DataInputStream in, long length) throws IOException, FormatException
+	{
+		if(length < 0)
+		{
+			throw new FormatException("Negative tag length " + length);
+		}
+		while(length > 0)
+		{
+			long skipped = in.skip(length);
+			if(skipped <= 0)
+			{
+				if(in.read() < 0)
+				{
+					throw new EOFException("Unexpected end of stream while skipping a tag");
+				}
+				skipped = 1;
+			}
+			length -= skipped;
+		}
+	}
+
+	/**
+	 * Converts an NBT structure from an uncompressed <code>InputStream</code> straight into Json without building the tags. The Json is the same as {@link Tag#writeJson(JsonWriter, boolean)} writes for the root compound tag.
+	 * @param i The <code>InputStream</code> to read the uncompressed NBT structure from.
+	 * @param writer The stream to write the Json to.
+	 * @param includeTypes Whether to wrap each value in an object with its type.
+	 * @throws java.io.IOException if the input or output operation generates an exception.
+	 * @throws FormatException if the NBT structure is invalid.
+	 */
+	public static void TranscodeJson(InputStream i, JsonWriter writer, boolean includeTypes) throws IOException, FormatException
+	{
+		TranscodeJson(i, writer, includeTypes, ArrayEncoding.HEX);
+	}
+	/**
+	 * Converts an NBT structure from an uncompressed <code>InputStream</code> straight into Json without building the tags. The Json is the same as {@link Tag#writeJson(JsonWriter, boolean, ArrayEncoding)} writes for the root compound tag.
+	 * @param i The <code>InputStream</code> to read the uncompressed NBT structure from.
+	 * @param writer The stream to write the Json to.
+	 * @param includeTypes Whether to wrap each value in an object with its type.
+	 * @param arrays How to write byte and int arrays.
+	 * @throws java.io.IOException if the input or output operation generates an exception.
+	 * @throws FormatException if the NBT structure is invalid.
+	 */
+	public static void TranscodeJson(InputStream i, JsonWriter writer, boolean includeTypes, ArrayEncoding arrays) throws IOException, FormatException
+	{
+		int ch = i.read();
+		if(ch == -1)
+		{
+			throw new FormatException("Unexpected end of stream before reading root tag");
+		}
+		else if(ch != Tag.Type.COMPOUND.ordinal())
+		{
+			throw new FormatException("Root tag was not a Compound tag; tag ID was "+ch);
+		}
+		DataInputStream in = new DataInputStream(i);
+		ReadString(in);
+		TranscodeJson(in, Tag.Type.COMPOUND, writer, includeTypes, arrays);
+	}
+	/**
+	 * Converts the payload of a tag into Json.
+	 * @param in The stream positioned at the payload.
+	 * @param t The type of the tag.
+	 * @param writer The stream to write the Json to.
+	 * @param includeTypes Whether to wrap each value in an object with its type.
+	 * @param arrays How to write byte and int arrays.
+	 */
+	private static void TranscodeJson(DataInputStream in, Tag.Type t, JsonWriter writer, boolean includeTypes, ArrayEncoding arrays) throws IOException, FormatException
+	{
+		Tag.Type element = null;
+		if(includeTypes)
+		{
+			writer.beginObject();
+			writer.name("type");
+			writer.value(Tag.JSON_TYPES[t.ordinal()]);
+			if(t == Tag.Type.LIST)
+			{
+				element = ReadType(in);
+				writer.name("element");
+				writer.value(Tag.JSON_TYPES[element.ordinal()]);
+			}
+			writer.name("value");
+		}
+		switch(t)
+		{
+			case END:
+				break;
+			case BYTE:
+				writer.value(in.readByte());
+				break;
+			case SHORT:
+				writer.value(in.readShort());
+				break;
+			case INT:
+				writer.value(in.readInt());
+				break;
+			case LONG:
+				writer.value(in.readLong());
+				break;
+			case FLOAT:
+				writer.value(in.readFloat());
+				break;
+			case DOUBLE:
+				writer.value(in.readDouble());
+				break;
+			case BYTEARRAY:
+				byte[] bytes = new byte[ReadLength(in, in.readInt())];
+				in.readFully(bytes);
+				arrays.write(writer, bytes);
+				break;
+			case STRING:
+				writer.value(ReadString(in));
+				break;
+			case INTARRAY:
+				int[] ints = new int[ReadLength(in, in.readInt())];
+				for(int n = 0; n < ints.length; ++n)
+				{
+					ints[n] = in.readInt();
+				}
+				arrays.write(writer, ints);
+				break;
+			case LIST:
+				if(element == null)
+				{
+					element = ReadType(in);
+				}
+				int length = ReadLength(in, in.readInt());
+				writer.beginArray();
+				for(int n = 0; n < length; ++n)
+				{
+					TranscodeJson(in, element, writer, includeTypes, arrays);
+				}
+				writer.endArray();
+				break;
+			case COMPOUND:
+				Tag.Type child;
+				writer.beginObject();
+				while((child = ReadType(in)) != Tag.Type.END)
+				{
+					writer.name(ReadString(in));
+					TranscodeJson(in, child, writer, includeTypes, arrays);
+				}
+				writer.endObject();
+				break;
+		}
+		if(includeTypes)
+		{
+			writer.endObject();
+		}
+	}
+	private static String ReadString(DataInputStream in) throws IOException, FormatException
+	{
+		short length = in.readShort();
+		if(length < 0)
+		{
+			throw new FormatException("StringTag length was negative: " + length);
+		}
+		byte[] str = new byte[length];
+		in.readFully(str);
+		return new String(str, Tag.UTF8);
+	}
+	private static int ReadLength(DataInputStream in, int length) throws FormatException
+	{
+		if(length < 0)
+		{
+			throw new FormatException("Negative tag length " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Converts typed Json, as written by {@link Tag#writeJson(JsonWriter, boolean, ArrayEncoding)} with the types included, straight into an uncompressed NBT structure without building the tags. Each value's type must come before the value. Only the payload of each list is held in memory, since NBT needs its length first.
+	 * @param reader The stream to read one typed compound tag from.
+	 * @param o The <code>OutputStream</code> to write the uncompressed NBT structure to.
+	 * @param arrays How the byte and int arrays were written.
+	 * @throws java.io.IOException if the input or output operation generates an exception.
+	 * @throws FormatException if the Json is not typed NBT or its root is not a compound tag.
+	 */
+	public static void ImportJson(JsonReader reader, OutputStream o, ArrayEncoding arrays) throws IOException, FormatException
+	{
+		DataOutputStream out = new DataOutputStream(o);
+		reader.beginObject();
+		Tag.Type t = ReadJsonType(reader);
+		if(t != Tag.Type.COMPOUND)
+		{
+			throw new FormatException("Root tag was not a Compound tag; type was " + Tag.JSON_TYPES[t.ordinal()]);
+		}
+		out.writeByte(t.ordinal());
+		WriteString(out, "");
+		ImportJson(reader, t, out, arrays);
+		reader.endObject();
+		out.flush();
+	}
+	/**
+	 * Converts the value of a typed Json object into the payload of a tag.
+	 * @param reader The stream positioned after the type of the value.
+	 * @param t The type of the tag.
+	 * @param out The stream to write the payload to.
+	 * @param arrays How the byte and int arrays were written.
+	 */
+	private static void ImportJson(JsonReader reader, Tag.Type t, DataOutputStream out, ArrayEncoding arrays) throws IOException, FormatException
+	{
+		//Json written before lists carried their element type leaves it out
+		Tag.Type declared = null;
+		String key = reader.nextName();
+		if(t == Tag.Type.LIST && "element".equals(key))
+		{
+			declared = ParseJsonType(reader.nextString(), reader);
+			key = reader.nextName();
+		}
+		if(!"value".equals(key))
+		{
+			throw new FormatException("Typed value needs its value after its type at " + reader);
+		}
+		switch(t)
+		{
+			case BYTE:
+				out.writeByte(ReadJsonInt(reader, Byte.MIN_VALUE, Byte.MAX_VALUE));
+				break;
+			case SHORT:
+				out.writeShort(ReadJsonInt(reader, Short.MIN_VALUE, Short.MAX_VALUE));
+				break;
+			case INT:
+				out.writeInt(reader.nextInt());
+				break;
+			case LONG:
+				out.writeLong(reader.nextLong());
+				break;
+			case FLOAT:
+				out.writeFloat((float) reader.nextDouble());
+				break;
+			case DOUBLE:
+				out.writeDouble(reader.nextDouble());
+				break;
+			case BYTEARRAY:
+				byte[] bytes = arrays.readBytes(reader);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				break;
+			case STRING:
+				WriteString(out, reader.nextString());
+				break;
+			case INTARRAY:
+				int[] ints = arrays.readInts(reader);
+				out.writeInt(ints.length);
+				for(int value : ints)
+				{
+					out.writeInt(value);
+				}
+				break;
+			case LIST:
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				DataOutputStream elements = new DataOutputStream(buffer);
+				Tag.Type element = declared == null ? Tag.Type.END : declared;
+				int length = 0;
+				reader.beginArray();
+				while(reader.hasNext())
+				{
+					reader.beginObject();
+					Tag.Type e = ReadJsonType(reader);
+					if((length > 0 || declared != null) && e != element)
+					{
+						throw new FormatException("List of " + Tag.JSON_TYPES[element.ordinal()] + " holds a " + Tag.JSON_TYPES[e.ordinal()]);
+					}
+					element = e;
+					ImportJson(reader, e, elements, arrays);
+					reader.endObject();
+					length += 1;
+				}
+				reader.endArray();
+				out.writeByte(element.ordinal());
+				out.writeInt(length);
+				buffer.writeTo(out);
+				break;
+			case COMPOUND:
+				reader.beginObject();
+				while(reader.hasNext())
+				{
+					String n = reader.nextName();
+					reader.beginObject();
+					Tag.Type child = ReadJsonType(reader);
+					out.writeByte(child.ordinal());
+					WriteString(out, n);
+					ImportJson(reader, child, out, arrays);
+					reader.endObject();
+				}
+				reader.endObject();
+				out.writeByte(Tag.Type.END.ordinal());
+				break;
+			default:
+				throw new FormatException("Json can't hold a tag of type " + Tag.JSON_TYPES[t.ordinal()]);
+		}
+	}
+	/**
+	 * Reads the type of a typed Json object, leaving the rest of the object to {@link #ImportJson(JsonReader, Tag.Type, DataOutputStream, ArrayEncoding)}.
+	 * @param reader The stream positioned inside the object.
+	 * @return The type of the value.
+	 */
+	private static Tag.Type ReadJsonType(JsonReader reader) throws IOException, FormatException
+	{
+		if(!"type".equals(reader.nextName()))
+		{
+			throw new FormatException("Typed value needs its type first at " + reader);
+		}
+		return ParseJsonType(reader.nextString(), reader);
+	}
+	/**
+	 * Looks up a type by its name in typed Json.
+	 * @param name The name of the type.
+	 * @param reader The stream the name was read from, for the error message.
+	 * @return The type with the name.
+	 */
+	private static Tag.Type ParseJsonType(String name, JsonReader reader) throws FormatException
+	{
+		Tag.Type result = null;
+		for(Tag.Type t : Tag.Type.values())
+		{
+			if(Tag.JSON_TYPES[t.ordinal()].equals(name))
+			{
+				result = t;
+			}
+		}
+		if(result == null)
+		{
+			throw new FormatException("Unknown tag type " + name + " at " + reader);
+		}
+		return result;
+	}
+	private static int ReadJsonInt(JsonReader reader, int min, int max) throws IOException, FormatException
+	{
+		int result = reader.nextInt();
+		if(result < min || result > max)
+		{
+			throw new FormatException("Value " + result + " is out of range at " + reader);
+		}
+		return result;
+	}
+	private static void WriteString(DataOutputStream out, String s) throws IOException, FormatException
+	{
+		byte[] str = s.getBytes(Tag.UTF8);
+		if(str.length > Short.MAX_VALUE)
+		{
+			throw new FormatException("String of " + str.length + " bytes is too long");
+		}
+		out.writeShort(str.length);
+		out.write(str);
+	}
+
 	/**
 	 * The constructor that you won't be using.
 	 * @throws UnsupportedOperationException always.
@@ -29,8 +29,8 @@ public class Chunk {
   private final static String Z_POS = "zPos";
   private final static String LAST_UPDATE = "LastUpdate";
   private final static String TERRAIN_POPULATED = "TerrainPopulated";
-  private final static String BIOMES = " Biomes";
-  private final static String HEIGHT_MAP = "HeightMap";
+  public final static String BIOMES = "Biomes";
+  public final static String HEIGHT_MAP = "HeightMap";
   private final static String SECTIONS = "Sections";
   private final static String Y = "Y";
   private final static String INHABITED_TIME = "InhabitedTime";
@@ -69,7 +69,7 @@ public class Chunk {
    */
   static byte Nibble4(byte[] arr, int index) {
     return (byte) ((index & 1) == 0 ? arr[index / 2] & 0x0F :
-        arr[index / 2] >> 4);
+        (arr[index / 2] >> 4) & 0x0F);
   }
 
   /**
@@ -389,7 +389,7 @@ public class Chunk {
           ", " + z + ")");
     }
     byte[] biomes = object.getByteArray(BIOMES);
-    return biomes[x * 16 + z];
+    return biomes[z * 16 + x];
   }
 
   /**
@@ -435,7 +435,25 @@ public class Chunk {
       biomes = new byte[256];
       object.setByteArray(BIOMES, biomes);
     }
-    biomes[x * 16 + z] = id;
+    biomes[z * 16 + x] = id;
+  }
+
+  /**
+   * Returns the whole Biomes array without copying it.
+   *
+   * @return The Biome IDs indexed by z * 16 + x, or null if the chunk has none.
+   */
+  public byte[] getBiomes() {
+    return object.getByteArray(BIOMES);
+  }
+
+  /**
+   * Returns the whole HeightMap array without copying it.
+   *
+   * @return The heights indexed by z * 16 + x, or null if the chunk has none.
+   */
+  public int[] getHeightMap() {
+    return object.getIntegerArray(HEIGHT_MAP);
   }
 
   /**
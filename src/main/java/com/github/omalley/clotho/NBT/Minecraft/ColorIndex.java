@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho.NBT.Minecraft;
+
+import java.awt.image.IndexColorModel;
+import java.util.Arrays;
+
+/**
+ * Finds the palette index of a color with an open addressing hash table, which avoids boxing every pixel into a <code>HashMap</code> lookup. The colors are 0xRRGGBB, without alpha.
+ * @author LB
+ */
+public final class ColorIndex
+{
+	/**
+	 * Marks an empty slot; no color without alpha is -1.
+	 */
+	private static final int EMPTY = -1;
+	private final int[] keys;
+	private final byte[] values;
+	private final int mask;
+	private final int shift;
+	private int size;
+
+	/**
+	 * Constructs an empty table.
+	 * @param capacity The most colors that will be added.
+	 */
+	public ColorIndex(int capacity)
+	{
+		int slots = Integer.highestOneBit(Math.max(capacity, 1) * 4);
+		keys = new int[slots];
+		values = new byte[slots];
+		mask = slots - 1;
+		shift = Integer.numberOfLeadingZeros(mask);
+		Arrays.fill(keys, EMPTY);
+	}
+	/**
+	 * Constructs a table of the colors in a palette, ignoring their alpha. Where a color appears more than once the lowest index wins.
+	 * @param palette The palette to index.
+	 */
+	public ColorIndex(IndexColorModel palette)
+	{
+		this(palette.getMapSize());
+		for(int i = 0; i < palette.getMapSize(); ++i)
+		{
+			int rgb = palette.getRGB(i) & 0xFFFFFF;
+			if(Get(rgb) < 0)
+			{
+				Put(rgb, (byte)i);
+			}
+		}
+	}
+
+	private int Find(int rgb)
+	{
+		//the top bits of the product are the best mixed
+		int slot = (rgb * 0x9E3779B1) >>> shift & mask;
+		while(keys[slot] != EMPTY && keys[slot] != rgb)
+		{
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	/**
+	 * Returns the palette index of a color.
+	 * @param rgb The color as 0xRRGGBB.
+	 * @return The index from 0 to 255, or -1 if the color was not added.
+	 */
+	public int Get(int rgb)
+	{
+		int slot = Find(rgb);
+		return keys[slot] == EMPTY ? -1 : values[slot] & 0xFF;
+	}
+	/**
+	 * Adds or replaces the palette index of a color. Once the table is half full new colors are ignored, so a table used as a cache never needs to grow.
+	 * @param rgb The color as 0xRRGGBB.
+	 * @param index The index of the color.
+	 */
+	public void Put(int rgb, byte index)
+	{
+		int slot = Find(rgb);
+		if(keys[slot] == EMPTY)
+		{
+			if(size * 2 >= keys.length)
+			{
+				return;
+			}
+			keys[slot] = rgb;
+			++size;
+		}
+		values[slot] = index;
+	}
+}
@@ -17,6 +17,7 @@ import com.github.omalley.clotho.NBT.Tag;
 import com.github.omalley.clotho.NBT.FormatException;
 import java.awt.image.IndexColorModel;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.awt.Color;
 
 /**
@@ -49,6 +50,10 @@ public class Map
 	 * The Color Model for map colors.
 	 */
 	private static final IndexColorModel MapColorModel;
+	/**
+	 * The index of each opaque map color, so that finding a color does not need to search the whole palette. Where a color appears more than once the lowest index wins.
+	 */
+	private static final ColorIndex MapColorIndex;
 	static
 	{
 		final Color[] BaseMapColors = new Color[] {
@@ -111,7 +116,16 @@ public class Map
 			a[i] = (byte)mc.getAlpha();
 		}
 		MapColorModel = new IndexColorModel(8, MapColors.length, r, g, b, a);
+		MapColorIndex = new ColorIndex(MapColors.length);
+		for(int i = MapColors.length - 1; i >= 0; --i)
+		{
+			if(MapColors[i].getAlpha() == 255)
+			{
+				MapColorIndex.Put(MapColors[i].getRGB() & 0xFFFFFF, (byte)i);
+			}
+		}
 	}
+
 	/**
 	 * The map data.
 	 */
@@ -134,14 +148,118 @@ public class Map
 
 		byte[] data = ((Tag.ByteArray)map.find(Tag.Type.BYTEARRAY, "colors")).v;
 		colors = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, MapColorModel);
-		for(int i = 0; i < width; ++i)
+		//the raster of an 8 bit indexed image holds the palette indexes in the same order as the colors array
+		byte[] pixels = Pixels();
+		System.arraycopy(data, 0, pixels, 0, Math.min(data.length, pixels.length));
+	}
+
+	/**
+	 * Constructs a 128x128 Map from palette indexes.
+	 * @param scale The zoom level, 2^scale square blocks per pixel.
+	 * @param dim The dimension the map shows terrain from.
+	 * @param x The X coordinate of the center of the map.
+	 * @param z The Z coordinate of the center of the map.
+	 * @param data The indexes into <code>MapColors</code> of each pixel, in rows from north to south.
+	 */
+	public Map(byte scale, Level.Player.Dimension dim, int x, int z, byte[] data)
+	{
+		width = 128;
+		height = 128;
+		this.scale = scale;
+		dimension = dim;
+		xcenter = x;
+		zcenter = z;
+		colors = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, MapColorModel);
+		byte[] pixels = Pixels();
+		System.arraycopy(data, 0, pixels, 0, Math.min(data.length, pixels.length));
+	}
+
+	/**
+	 * Returns the palette indexes behind the image, one byte per pixel in rows.
+	 * @return The image's own array, so changes to it change the image.
+	 */
+	private byte[] Pixels()
+	{
+		return ((DataBufferByte)colors.getRaster().getDataBuffer()).getData();
+	}
+
+	/**
+	 * Returns the index of a color in <code>MapColors</code>.
+	 * @param argb The color as 0xAARRGGBB.
+	 * @return The index of the color, 0 for colors that are less than half opaque, or -1 if the color is not a map color.
+	 */
+	public static int ColorIndex(int argb)
+	{
+		if((argb >>> 24) < 128)
 		{
-			for(int j = 0; j < height; ++j)
+			return 0;
+		}
+		return MapColorIndex.Get(argb & 0xFFFFFF);
+	}
+	/**
+	 * Returns the index of the map color that looks closest to a color. Colors that are less than half opaque become transparent.
+	 * @param argb The color as 0xAARRGGBB.
+	 * @return The index of the closest color in <code>MapColors</code>.
+	 */
+	public static byte NearestColor(int argb)
+	{
+		int exact = ColorIndex(argb);
+		if(exact >= 0)
+		{
+			return (byte)exact;
+		}
+		int red = (argb >> 16) & 0xFF, green = (argb >> 8) & 0xFF, blue = argb & 0xFF;
+		int best = 0;
+		long bestDistance = Long.MAX_VALUE;
+		for(int i = 0; i < MapColors.length; ++i)
+		{
+			Color c = MapColors[i];
+			if(c.getAlpha() != 255)
+			{
+				continue;
+			}
+			//weight the channels by how sensitive the eye is to them
+			int dr = red - c.getRed(), dg = green - c.getGreen(), db = blue - c.getBlue();
+			long distance = 2L*dr*dr + 4L*dg*dg + 3L*db*db;
+			if(distance < bestDistance)
 			{
-				Color c = MapColors[data[i + j*width]];
-				colors.setRGB(i, j, c.getRGB());
+				best = i;
+				bestDistance = distance;
 			}
 		}
+		return (byte)best;
+	}
+	/**
+	 * Replaces this map's picture with an image, changing the size of the map to match it. Each pixel becomes the closest map color, and the colors that have already been matched are remembered, so converting artwork that uses a few thousand colors is fast.
+	 * @param img The image to convert.
+	 */
+	public void Image(BufferedImage img)
+	{
+		int w = img.getWidth(), h = img.getHeight();
+		int[] argb = img.getRGB(0, 0, w, h, null, 0, w);
+		BufferedImage converted = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_INDEXED, MapColorModel);
+		byte[] pixels = ((DataBufferByte)converted.getRaster().getDataBuffer()).getData();
+		ColorIndex matched = new ColorIndex(Math.min(argb.length, 1 << 16));
+		for(int i = 0; i < argb.length; ++i)
+		{
+			int c = argb[i];
+			if((c >>> 24) < 128)
+			{
+				pixels[i] = 0;
+				continue;
+			}
+			int rgb = c & 0xFFFFFF;
+			int index = matched.Get(rgb);
+			if(index < 0)
+			{
+				index = NearestColor(c) & 0xFF;
+				matched.Put(rgb, (byte)index);
+			}
+			pixels[i] = (byte)index;
+		}
+		width = (short)w;
+		height = (short)h;
+		colors = converted;
 	}
 
 	/**
@@ -161,7 +279,7 @@ public class Map
 		return height;
 	}
 	/**
-	 * Returns the image for this map. Colors are automatically converted to map colors.
+	 * Returns the image for this map. Colors are automatically converted to map colors. Use <code>Image(BufferedImage)</code> to convert a whole image at once.
 	 * @return The image for this map.
 	 */
 	public BufferedImage Image()
@@ -265,21 +383,8 @@ public class Map
 												  new Tag.IntTag("xCenter", xcenter),
 												  new Tag.IntTag("zCenter", zcenter),
 												  new Tag.ByteArray("colors", data = new byte[width*height])));
-		for(int i = 0; i < width; ++i)
-		{
-			for(int j = 0; j < height; ++j)
-			{
-				Color c = new Color(colors.getRGB(i, j));
-				for(int k = 0; k < MapColors.length; ++k)
-				{
-					if(c.equals(MapColors[k]))
-					{
-						data[i + j*width] = (byte)k;
-						break;
-					}
-				}
-			}
-		}
+		byte[] pixels = Pixels();
+		System.arraycopy(pixels, 0, data, 0, Math.min(data.length, pixels.length));
 		return t;
 	}
 }
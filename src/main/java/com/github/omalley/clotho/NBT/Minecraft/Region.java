@@ -29,6 +29,14 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
 import java.io.IOException;
 
@@ -142,34 +150,147 @@ public final class Region {
    * @throws IOException     if an input operation throws an exception.
    */
   public Chunk ReadChunk(int X, int Z) throws FormatException, IOException {
+    byte[] raw;
     try (RandomAccessFile region = new RandomAccessFile(rf, "r")) {
-      Entry<Integer, Integer> pair = OffSect(region, ((X % 32) + (Z % 32) * 32));
-      int offset = pair.getKey();
-      int sectors = pair.getValue();
-      if (offset != -SectorOffset && sectors != 0) {
-        region.seek(TimestampsOffset + offset * SectorSize);
-        int length;
-        int compression;
-        byte[] chunk;
-        length = region.readInt() - 1;
-        compression = region.readByte();
-        chunk = new byte[length];
-        region.readFully(chunk);
-        try (ByteArrayInputStream chunkin = new ByteArrayInputStream(chunk)) {
-          if (compression == GZip_Compression) {
-            return new Chunk((Tag.Compound) IO.Read(chunkin).get(LEVEL));
-          } else if (compression == Zlib_Compression) {
-            try (InflaterInputStream ci = new InflaterInputStream(chunkin)) {
-              return new Chunk((Tag.Compound) IO.ReadUncompressed(ci)
-                  .get(LEVEL));
-            }
-          }
+      raw = ReadRawChunk(region, ((X % 32) + (Z % 32) * 32));
+    }
+    byte[] nbt = raw == null ? null : Inflate(raw);
+    return nbt == null ? null : ParseChunk(nbt);
+  }
+
+  /**
+   * Reads the compressed bytes of a chunk.
+   *
+   * @param region The RandomAccessFile to read the data from.
+   * @param index  The chunk index, pre-calculated.
+   * @return The compression type followed by the compressed chunk, or null if the chunk does not exist.
+   * @throws IOException if an input operation throws an exception.
+   */
+  private static byte[] ReadRawChunk(RandomAccessFile region, int index) throws IOException {
+    Entry<Integer, Integer> pair = OffSect(region, index);
+    int offset = pair.getKey();
+    int sectors = pair.getValue();
+    if (offset == -SectorOffset || sectors == 0) {
+      return null;
+    }
+    region.seek(TimestampsOffset + offset * SectorSize);
+    byte[] chunk = new byte[region.readInt()];
+    region.readFully(chunk);
+    return chunk;
+  }
+
+  /**
+   * Reads the compressed bytes of many chunks while only opening the region file once.
+   *
+   * @param wanted Which chunks to read, indexed by X + Z * 32.
+   * @return The compression type followed by the compressed chunk for each wanted chunk, or null for the others and the chunks that do not exist.
+   * @throws IOException if an input operation throws an exception.
+   */
+  public byte[][] ReadRawChunks(boolean[] wanted) throws IOException {
+    byte[][] result = new byte[wanted.length][];
+    try (RandomAccessFile region = new RandomAccessFile(rf, "r")) {
+      for (int index = 0; index < wanted.length; ++index) {
+        if (wanted[index]) {
+          result[index] = ReadRawChunk(region, index);
         }
       }
     }
+    return result;
+  }
+
+  /**
+   * Opens a stream that decompresses a chunk from {@link #ReadRawChunks(boolean[])}.
+   *
+   * @param raw The compression type followed by the compressed chunk.
+   * @return The uncompressed NBT stream, or null if the compression type is unknown.
+   * @throws IOException if the compressed stream's header is invalid.
+   */
+  public static InputStream OpenRawChunk(byte[] raw) throws IOException {
+    ByteArrayInputStream chunkin = new ByteArrayInputStream(raw, 1, raw.length - 1);
+    if (raw[0] == GZip_Compression) {
+      return new GZIPInputStream(chunkin);
+    } else if (raw[0] == Zlib_Compression) {
+      return new InflaterInputStream(chunkin);
+    }
     return null;
   }
 
+  /**
+   * Opens a stream that compresses a chunk for {@link #WriteRawChunks(byte[][], int[])} with Zlib like Minecraft does.
+   *
+   * @param raw The stream to write the compression type and the compressed chunk to.
+   * @return The stream to write the uncompressed NBT to, which must be closed to finish the chunk.
+   * @throws IOException if the output operation throws an exception.
+   */
+  public static OutputStream CreateRawChunk(OutputStream raw) throws IOException {
+    raw.write(Zlib_Compression);
+    return new DeflaterOutputStream(raw);
+  }
+
+  /**
+   * Decompresses a chunk from {@link #ReadRawChunks(boolean[])}.
+   *
+   * @param raw The compression type followed by the compressed chunk.
+   * @return The uncompressed NBT bytes, or null if the compression type is unknown.
+   * @throws IOException if the chunk can not be decompressed.
+   */
+  public static byte[] Inflate(byte[] raw) throws IOException {
+    InputStream in = OpenRawChunk(raw);
+    if (in == null) {
+      return null;
+    }
+    try (ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length * 4)) {
+      try {
+        byte[] buffer = new byte[8 * KiB];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+          out.write(buffer, 0, length);
+        }
+      } finally {
+        in.close();
+      }
+      return out.toByteArray();
+    }
+  }
+
+  /**
+   * Decompresses and parses only some of a chunk's tags. The decompression
+   * stops as soon as the tags are found, so it is much faster than
+   * {@link #Inflate(byte[])} when the tags come before the sections.
+   *
+   * @param raw  The compression type followed by the compressed chunk.
+   * @param tags The names of the tags within the chunk's Level to keep.
+   * @return A chunk with only those tags, or null if the compression type is unknown.
+   * @throws FormatException if the chunk is invalid.
+   * @throws IOException     if the chunk can not be decompressed.
+   */
+  public static Chunk ParseRawChunk(byte[] raw, String... tags) throws FormatException, IOException {
+    String[] paths = new String[tags.length];
+    for (int i = 0; i < tags.length; ++i) {
+      paths[i] = LEVEL + "/" + tags[i];
+    }
+    InputStream in = OpenRawChunk(raw);
+    if (in == null) {
+      return null;
+    }
+    try (InputStream buffered = new BufferedInputStream(in)) {
+      Tag level = IO.ReadSelected(buffered, paths).get(LEVEL);
+      return level == null ? null : new Chunk((Tag.Compound) level);
+    }
+  }
+
+  /**
+   * Parses a chunk from its uncompressed NBT bytes.
+   *
+   * @param nbt The bytes from {@link #Inflate(byte[])}.
+   * @return The parsed chunk.
+   * @throws FormatException if the chunk is invalid.
+   * @throws IOException     if an input operation throws an exception.
+   */
+  public static Chunk ParseChunk(byte[] nbt) throws FormatException, IOException {
+    return new Chunk((Tag.Compound) IO.ReadUncompressed(new ByteArrayInputStream(nbt)).get(LEVEL));
+  }
+
   /**
    * Reads a chunk timestamp from the region file.
    *
@@ -187,6 +308,25 @@ public final class Region {
     }
   }
 
+  /**
+   * Reads the whole chunk timestamp table from the region file at once.
+   *
+   * @return The timestamps indexed by X + Z * 32.
+   * @throws IOException if an input operation throws an exception.
+   */
+  public int[] ReadTimestamps() throws IOException {
+    byte[] table = new byte[SectorSize];
+    try (RandomAccessFile region = new RandomAccessFile(rf, "r")) {
+      if (region.length() >= TimestampsOffset) {
+        region.seek(LocationsOffset);
+        region.readFully(table);
+      }
+    }
+    int[] result = new int[SectorSize / 4];
+    ByteBuffer.wrap(table).asIntBuffer().get(result);
+    return result;
+  }
+
   /**
    * Writes the given chunk to the region file in a lazy fashion. If the chunk exists in the region file and the given chunk can fit, it will be placed there and the sector size will be updated. Otherwise the chunk will be placed at the end of the region file without removing the old chunk, and the offset and sector size will be updated.
    *
@@ -241,11 +381,46 @@ public final class Region {
    * @throws IOException if the output operation throws an exception.
    */
   public void WriteTimestamp(int X, int Z, int timestamp) throws IOException {
-    try (FileOutputStream region = new FileOutputStream(rf)) {
-      region.getChannel().position(LocationsOffset + 4 * ((X % 32) + (Z % 32) * 32));
-      try (DataOutputStream dos = new DataOutputStream(region)) {
-        dos.writeInt(timestamp);
+    // a FileOutputStream would truncate the region to the timestamp
+    try (RandomAccessFile region = new RandomAccessFile(rf, "rw")) {
+      region.seek(LocationsOffset + 4 * ((X % 32) + (Z % 32) * 32));
+      region.writeInt(timestamp);
+    }
+  }
+
+  /**
+   * Replaces the whole region file with the given chunks, packed one after another without any free sectors. The new file is written next to the old one and then moved over it.
+   *
+   * @param raw        The compression type followed by the compressed chunk, indexed by X + Z * 32, with null for the chunks that do not exist.
+   * @param timestamps The chunk timestamps, indexed by X + Z * 32.
+   * @throws IOException if a chunk is too large or an output operation throws an exception.
+   */
+  public void WriteRawChunks(byte[][] raw, int[] timestamps) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(TimestampsOffset);
+    int sector = TimestampsOffset / SectorSize;
+    for (int index = 0; index < raw.length; ++index) {
+      if (raw[index] != null) {
+        int sectors = (raw[index].length + 4 + SectorSize - 1) / SectorSize;
+        if (sectors > 255) {
+          throw new IOException("Chunk " + index + " of " + rf + " needs " + sectors + " sectors");
+        }
+        header.putInt(4 * index, sector << 8 | sectors);
+        sector += sectors;
+      }
+      header.putInt(LocationsOffset + 4 * index, timestamps[index]);
+    }
+    File temp = new File(rf.getAbsoluteFile().getParentFile(), rf.getName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.write(header.array());
+      byte[] padding = new byte[SectorSize];
+      for (byte[] chunk : raw) {
+        if (chunk != null) {
+          out.writeInt(chunk.length);
+          out.write(chunk);
+          out.write(padding, 0, (SectorSize - (chunk.length + 4) % SectorSize) % SectorSize);
+        }
       }
     }
+    Files.move(temp.toPath(), rf.toPath(), StandardCopyOption.REPLACE_EXISTING);
   }
 }
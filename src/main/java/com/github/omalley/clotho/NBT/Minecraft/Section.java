@@ -132,6 +132,44 @@ public class Section {
         (Chunk.Nibble4(add, y * 16 * 16 + z * 16 + x) << 8));
   }
 
+  /**
+   * Returns the ID_ATTR and Data of the block at the given index packed as
+   * (id &lt;&lt; 4 | data). This skips the range checks so that it can be used
+   * in tight loops over the whole section.
+   *
+   * @param index The index of the block, which is y * 256 + z * 16 + x.
+   * @return The packed ID_ATTR and Data of the block.
+   */
+  public int getBlockKey(int index) {
+    int shift = (index & 1) << 2;
+    int half = index >> 1;
+    return ((blocks[index] & 0xff) << 4) |
+        (((add[half] >> shift) & 0x0f) << 12) |
+        ((data[half] >> shift) & 0x0f);
+  }
+
+  /**
+   * Returns the Block Light of the block at the given index without range
+   * checks.
+   *
+   * @param index The index of the block, which is y * 256 + z * 16 + x.
+   * @return The Block Light from 0 to 15.
+   */
+  public int getBlockLight(int index) {
+    return (blocklight[index >> 1] >> ((index & 1) << 2)) & 0x0f;
+  }
+
+  /**
+   * Returns the Sky Light of the block at the given index without range
+   * checks.
+   *
+   * @param index The index of the block, which is y * 256 + z * 16 + x.
+   * @return The Sky Light from 0 to 15.
+   */
+  public int getSkyLight(int index) {
+    return (skylight[index >> 1] >> ((index & 1) << 2)) & 0x0f;
+  }
+
   /**
    * Sets the ID_ATTR of the block at the given coordinates.
    *
@@ -0,0 +1,1643 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho.NBT.Serialization;
+
+import com.github.omalley.clotho.NBT.FormatException;
+import com.github.omalley.clotho.NBT.Tag;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The plan for serializing one NBTable class, which is built the first time the class is used and then shared by every thread. It holds the class's constructor and a codec for each field of the class and its NBTable super classes, chosen from the field's declared type, so each object is handled without looking up any fields or testing the types of their values. Only a field declared as a general type such as Object or Number has its codec picked from the class of its value.
+ * @author LB
+ */
+final class CodecPlan
+{
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	private static final MethodType GET_OBJECT = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SET_OBJECT = MethodType.methodType(void.class, Object.class, Object.class);
+	private static final ClassValue<CodecPlan> PLANS = new ClassValue<CodecPlan>()
+	{
+		@Override
+		protected CodecPlan computeValue(Class<?> type)
+		{
+			return new CodecPlan(type);
+		}
+	};
+
+	/**
+	 * Returns the plan for a class, building it if this is the first use of the class.
+	 * @param clazz The NBTable class.
+	 * @return The shared plan.
+	 */
+	static CodecPlan For(Class<?> clazz)
+	{
+		return PLANS.get(clazz);
+	}
+
+	/**
+	 * The class that this plan is for.
+	 */
+	final Class<?> clazz;
+	/**
+	 * The codecs for the fields of the super classes followed by those of this class.
+	 */
+	final FieldCodec[] fields;
+	/**
+	 * The codecs by the names of their fields, where a field hides any field of the same name in a super class.
+	 */
+	private final Map<String, Integer> byName;
+	/**
+	 * Whether the constructor also takes the outer class reference.
+	 */
+	private final boolean inner;
+	/**
+	 * The constructor that takes the compound tag, or null if it is missing.
+	 */
+	private final MethodHandle constructor;
+	/**
+	 * Why the constructor is missing.
+	 */
+	private final NoSuchMethodException noConstructor;
+	/**
+	 * The constructor without parameters for decoding streams, or null if it is missing.
+	 */
+	private final MethodHandle plainConstructor;
+
+	private CodecPlan(Class<?> clazz)
+	{
+		this.clazz = clazz;
+		List<FieldCodec> codecs = new ArrayList<>();
+		AddFields(clazz, codecs);
+		fields = codecs.toArray(new FieldCodec[codecs.size()]);
+		Map<String, Integer> names = new HashMap<>();
+		for(int i = 0; i < fields.length; ++i)
+		{
+			names.put(fields[i].name, i);
+		}
+		byName = Collections.unmodifiableMap(names);
+		Class<?> out = clazz.getDeclaringClass();
+		inner = out != null && !Modifier.isStatic(clazz.getModifiers());
+		MethodHandle cons = null;
+		NoSuchMethodException missing = null;
+		try
+		{
+			Constructor<?> c = inner ? clazz.getDeclaredConstructor(out, Tag.Compound.class) : clazz.getDeclaredConstructor(Tag.Compound.class);
+			c.setAccessible(true);
+			cons = LOOKUP.unreflectConstructor(c).asType(inner ? MethodType.methodType(Object.class, Object.class, Tag.Compound.class) : MethodType.methodType(Object.class, Tag.Compound.class));
+		}
+		catch(NoSuchMethodException e)
+		{
+			missing = e;
+		}
+		catch(IllegalAccessException e)
+		{
+			throw new IllegalStateException("Can't use the constructor of " + clazz, e);
+		}
+		constructor = cons;
+		noConstructor = missing;
+		MethodHandle plain = null;
+		try
+		{
+			Constructor<?> c = clazz.getDeclaredConstructor();
+			c.setAccessible(true);
+			plain = LOOKUP.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+		}
+		catch(NoSuchMethodException | IllegalAccessException e)
+		{
+			// only needed for arrays of this class in streams
+		}
+		plainConstructor = plain;
+	}
+
+	/**
+	 * Adds the codecs for the fields of a class, after those of its NBTable super classes.
+	 */
+	private static void AddFields(Class<?> clazz, List<FieldCodec> codecs)
+	{
+		Class<?> sup = clazz.getSuperclass();
+		if(sup != null && NBTable.class.isAssignableFrom(sup))
+		{
+			AddFields(sup, codecs);
+		}
+		for(Field field : clazz.getDeclaredFields())
+		{
+			int mod = field.getModifiers();
+			if(!Modifier.isTransient(mod) && !Modifier.isStatic(mod) && !field.isSynthetic())
+			{
+				codecs.add(Create(field));
+			}
+		}
+	}
+
+	/**
+	 * Serializes an object with this plan.
+	 * @param name The name of the compound tag to return.
+	 * @param obj The object, which must be an instance of this plan's class.
+	 * @param preferList Whether to prefer TAG_List over TAG_Byte_Array and TAG_Int_Array.
+	 * @return The compound tag holding the fields.
+	 */
+	Tag.Compound Serialize(String name, Object obj, boolean preferList) throws Throwable
+	{
+		Tag.Compound t = new Tag.Compound(name);
+		for(int i = 0; i < fields.length; ++i)
+		{
+			if(Visible(i))
+			{
+				fields[i].Serialize(obj, t, preferList);
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Constructs a new instance from a compound tag and then deserializes its fields.
+	 * @param outer The outer class reference for non-static inner classes.
+	 * @param t The tag to deserialize from.
+	 * @return The new instance.
+	 */
+	NBTable Deserialize(Object outer, Tag.Compound t) throws Throwable
+	{
+		if(constructor == null)
+		{
+			throw noConstructor;
+		}
+		Object obj = inner ? constructor.invokeExact(outer, t) : constructor.invokeExact(t);
+		for(FieldCodec field : fields)
+		{
+			field.Deserialize(obj, t);
+		}
+		return (NBTable)obj;
+	}
+
+	/**
+	 * Whether a field is written, which it isn't if a subclass hides it with a field of the same name. Both the tree and the stream skip hidden fields, so their tags come in the same order.
+	 * @param i The index of the field's codec.
+	 */
+	private boolean Visible(int i)
+	{
+		return byName.get(fields[i].name) == i;
+	}
+
+	/**
+	 * Writes the payload of a compound tag holding an object's fields straight to a stream, ending with the TAG_End.
+	 * @param obj The object, which must be an instance of this plan's class.
+	 * @param out The stream to write to.
+	 * @param preferList Whether to prefer TAG_List over TAG_Byte_Array and TAG_Int_Array.
+	 */
+	void Encode(Object obj, DataOutputStream out, boolean preferList) throws Throwable
+	{
+		for(int i = 0; i < fields.length; ++i)
+		{
+			if(Visible(i))
+			{
+				fields[i].Encode(obj, out, preferList);
+			}
+		}
+		out.writeByte(Tag.Type.END.ordinal());
+	}
+
+	/**
+	 * Reads the payload of a compound tag straight into an object's fields, matching each tag to a field by name as it arrives and skipping the tags without one.
+	 * @param in The stream positioned at the payload.
+	 * @param obj The object, which must be an instance of this plan's class.
+	 * @throws FormatException if a tag is missing for a field that isn't null.
+	 */
+	void Decode(DataInputStream in, Object obj) throws Throwable
+	{
+		boolean[] found = new boolean[fields.length];
+		Tag.Type type;
+		while((type = com.github.omalley.clotho.NBT.IO.ReadType(in)) != Tag.Type.END)
+		{
+			Integer index = byName.get(ReadString(in));
+			if(index == null)
+			{
+				com.github.omalley.clotho.NBT.IO.Skip(in, type);
+			}
+			else
+			{
+				fields[index].Decode(obj, type, in);
+				found[index] = true;
+			}
+		}
+		for(int i = 0; i < fields.length; ++i)
+		{
+			if(!found[i] && Visible(i) && fields[i].Required(obj))
+			{
+				throw new FormatException("No tag with the name \"" + fields[i].name + "\"");
+			}
+		}
+	}
+
+	/**
+	 * Constructs an instance to decode a stream into.
+	 * @throws NoSuchMethodException if the class has no constructor without parameters.
+	 */
+	Object NewInstance() throws Throwable
+	{
+		if(plainConstructor == null)
+		{
+			throw new NoSuchMethodException(clazz.getName() + " needs a constructor without parameters to be decoded in an array");
+		}
+		return plainConstructor.invokeExact();
+	}
+
+	/**
+	 * Reads and writes one field of an object as a tag in the object's compound tag.
+	 */
+	abstract static class FieldCodec
+	{
+		/**
+		 * The name of the field and its tag.
+		 */
+		final String name;
+		/**
+		 * The name as it is written in NBT.
+		 */
+		final byte[] encodedName;
+
+		FieldCodec(String name)
+		{
+			this.name = name;
+			encodedName = name.getBytes(StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Adds the field's tag to the compound tag, unless the field is null.
+		 */
+		abstract void Serialize(Object obj, Tag.Compound t, boolean preferList) throws Throwable;
+
+		/**
+		 * Sets the field from its tag, unless the field is null.
+		 */
+		abstract void Deserialize(Object obj, Tag.Compound t) throws Throwable;
+
+		/**
+		 * Writes the field as a named tag, unless the field is null.
+		 */
+		abstract void Encode(Object obj, DataOutputStream out, boolean preferList) throws Throwable;
+
+		/**
+		 * Sets the field from the payload of its tag, unless the field is null.
+		 * @param type The type of the tag that the stream is positioned at the payload of.
+		 */
+		abstract void Decode(Object obj, Tag.Type type, DataInputStream in) throws Throwable;
+
+		/**
+		 * Returns whether decoding must find this field's tag.
+		 */
+		boolean Required(Object obj) throws Throwable
+		{
+			return true;
+		}
+	}
+
+	/**
+	 * The codec for a field that holds an object, which is skipped when it is null.
+	 */
+	private abstract static class ObjectCodec extends FieldCodec
+	{
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		ObjectCodec(String name, MethodHandle getter, MethodHandle setter)
+		{
+			super(name);
+			this.getter = getter.asType(GET_OBJECT);
+			this.setter = setter.asType(SET_OBJECT);
+		}
+
+		/**
+		 * Returns the tag for the field's value.
+		 * @return The tag or null to leave the field out.
+		 */
+		abstract Tag Write(Object value, boolean preferList) throws Throwable;
+
+		/**
+		 * Returns the field's new value from the compound tag.
+		 * @param current The field's value, which is never null.
+		 */
+		abstract Object Read(Tag.Compound t, Object current) throws Throwable;
+
+		/**
+		 * Writes the field's value as a named tag.
+		 */
+		abstract void WriteValue(DataOutputStream out, Object value, boolean preferList) throws Throwable;
+
+		/**
+		 * Returns the field's new value from the payload of its tag.
+		 * @param current The field's value, which is never null.
+		 */
+		abstract Object ReadValue(DataInputStream in, Tag.Type type, Object current) throws Throwable;
+
+		@Override
+		final void Serialize(Object obj, Tag.Compound t, boolean preferList) throws Throwable
+		{
+			Object value = getter.invokeExact(obj);
+			if(value != null)
+			{
+				Tag tag = Write(value, preferList);
+				if(tag != null)
+				{
+					t.Add(tag);
+				}
+			}
+		}
+
+		@Override
+		final void Deserialize(Object obj, Tag.Compound t) throws Throwable
+		{
+			Object current = getter.invokeExact(obj);
+			if(current != null)
+			{
+				setter.invokeExact(obj, Read(t, current));
+			}
+		}
+
+		@Override
+		final void Encode(Object obj, DataOutputStream out, boolean preferList) throws Throwable
+		{
+			Object value = getter.invokeExact(obj);
+			if(value != null)
+			{
+				WriteValue(out, value, preferList);
+			}
+		}
+
+		@Override
+		final void Decode(Object obj, Tag.Type type, DataInputStream in) throws Throwable
+		{
+			Object current = getter.invokeExact(obj);
+			if(current != null)
+			{
+				setter.invokeExact(obj, ReadValue(in, type, current));
+			}
+			else
+			{
+				com.github.omalley.clotho.NBT.IO.Skip(in, type);
+			}
+		}
+
+		@Override
+		boolean Required(Object obj) throws Throwable
+		{
+			return getter.invokeExact(obj) != null;
+		}
+	}
+
+	/**
+	 * Builds the codec for a field from its declared type.
+	 */
+	private static FieldCodec Create(Field field)
+	{
+		field.setAccessible(true);
+		MethodHandle getter;
+		MethodHandle setter;
+		try
+		{
+			getter = LOOKUP.unreflectGetter(field);
+		}
+		catch(IllegalAccessException e)
+		{
+			throw new IllegalStateException("Can't read " + field, e);
+		}
+		try
+		{
+			setter = LOOKUP.unreflectSetter(field);
+		}
+		catch(IllegalAccessException e)
+		{
+			// final fields can only be set through reflection
+			try
+			{
+				setter = LOOKUP.findVirtual(Field.class, "set", SET_OBJECT).bindTo(field);
+			}
+			catch(NoSuchMethodException | IllegalAccessException e2)
+			{
+				throw new IllegalStateException("Can't write " + field, e2);
+			}
+		}
+		return Create(field.getName(), field.getType(), getter, setter, true);
+	}
+
+	/**
+	 * Builds the codec for a field from a type, which is either the field's declared type or the class of the value it holds.
+	 * @param declared Whether the type is the field's declared type, which may be too general to say how to write the field.
+	 * @return The codec, or null if the type is the class of a value that can't be serialized.
+	 */
+	private static FieldCodec Create(final String n, final Class<?> type, MethodHandle getter, MethodHandle setter, boolean declared)
+	{
+		if(type.isPrimitive())
+		{
+			return CreatePrimitive(n, type, getter, setter);
+		}
+		else if(NBTable.class.isAssignableFrom(type))
+		{
+			return new ObjectCodec(n, getter, setter)
+			{
+				@Override
+				Tag Write(Object value, boolean preferList) throws Throwable
+				{
+					return For(value.getClass()).Serialize(name, value, preferList);
+				}
+
+				@Override
+				Object Read(Tag.Compound t, Object current) throws Throwable
+				{
+					return For(current.getClass()).Deserialize(null, (Tag.Compound)t.find(Tag.Type.COMPOUND, name));
+				}
+
+				@Override
+				void WriteValue(DataOutputStream out, Object value, boolean preferList) throws Throwable
+				{
+					WriteHeader(out, Tag.Type.COMPOUND, encodedName);
+					For(value.getClass()).Encode(value, out, preferList);
+				}
+
+				@Override
+				Object ReadValue(DataInputStream in, Tag.Type type, Object current) throws Throwable
+				{
+					CheckType(type, Tag.Type.COMPOUND, name);
+					For(current.getClass()).Decode(in, current);
+					return current;
+				}
+			};
+		}
+		else if(type.isArray() && NBTable.class.isAssignableFrom(type.getComponentType()))
+		{
+			final Class<?> element = type.getComponentType();
+			return new ObjectCodec(n, getter, setter)
+			{
+				@Override
+				Tag Write(Object value, boolean preferList) throws Throwable
+				{
+					Tag.ListTag list = new Tag.ListTag(name, Tag.Type.COMPOUND);
+					for(NBTable nbtable : (NBTable[])value)
+					{
+						list.Add(For(nbtable.getClass()).Serialize(null, nbtable, preferList));
+					}
+					return list;
+				}
+
+				@Override
+				Object Read(Tag.Compound t, Object current) throws Throwable
+				{
+					Tag.ListTag list = FindList(t, name, Tag.Type.COMPOUND);
+					CodecPlan plan = For(element);
+					Object[] arr = (Object[])Array.newInstance(element, list.size());
+					for(int i = 0; i < arr.length; ++i)
+					{
+						arr[i] = plan.Deserialize(null, (Tag.Compound)list.Get(i));
+					}
+					return arr;
+				}
+
+				@Override
+				void WriteValue(DataOutputStream out, Object value, boolean preferList) throws Throwable
+				{
+					NBTable[] arr = (NBTable[])value;
+					WriteHeader(out, Tag.Type.LIST, encodedName);
+					out.writeByte(Tag.Type.COMPOUND.ordinal());
+					out.writeInt(arr.length);
+					for(NBTable nbtable : arr)
+					{
+						For(nbtable.getClass()).Encode(nbtable, out, preferList);
+					}
+				}
+
+				@Override
+				Object ReadValue(DataInputStream in, Tag.Type type, Object current) throws Throwable
+				{
+					int length = ReadListHeader(in, type, Tag.Type.COMPOUND, name);
+					CodecPlan plan = For(element);
+					Object[] arr = (Object[])Array.newInstance(element, length);
+					for(int i = 0; i < arr.length; ++i)
+					{
+						arr[i] = plan.NewInstance();
+						plan.Decode(in, arr[i]);
+					}
+					return arr;
+				}
+			};
+		}
+		else if(type == Byte.class || type == Short.class || type == Integer.class || type == Long.class || type == Float.class || type == Double.class || type == String.class)
+		{
+			final Tag.Type tagType = BoxedType(type);
+			return new ObjectCodec(n, getter, setter)
+			{
+				@Override
+				Tag Write(Object value, boolean preferList)
+				{
+					return Box(name, tagType, value);
+				}
+
+				@Override
+				Object Read(Tag.Compound t, Object current) throws FormatException
+				{
+					return Unbox(t.find(tagType, name));
+				}
+
+				@Override
+				void WriteValue(DataOutputStream out, Object value, boolean preferList) throws IOException
+				{
+					WriteHeader(out, tagType, encodedName);
+					WriteBoxed(out, tagType, value);
+				}
+
+				@Override
+				Object ReadValue(DataInputStream in, Tag.Type type, Object current) throws IOException, FormatException
+				{
+					CheckType(type, tagType, name);
+					return ReadBoxed(in, tagType);
+				}
+			};
+		}
+		else if(type == byte[].class)
+		{
+			return new ObjectCodec(n, getter, setter)
+			{
+				@Override
+				Tag Write(Object value, boolean preferList) throws FormatException
+				{
+					byte[] arr = (byte[])value;
+					if(!preferList)
+					{
+						return new Tag.ByteArray(name, arr);
+					}
+					Tag.ListTag list = new Tag.ListTag(name, Tag.Type.BYTE);
+					for(byte b : arr)
+					{
+						list.Add(new Tag.ByteTag(null, b));
+					}
+					return list;
+				}
+
+				@Override
+				Object Read(Tag.Compound t, Object current) throws FormatException
+				{
+					Tag tag = t.get(name);
+					Tag.ListTag tl;
+					if(tag != null && tag.Type() == Tag.Type.BYTEARRAY)
+					{
+						byte[] arr = ((Tag.ByteArray)tag).v;
+						return Arrays.copyOf(arr, arr.length);
+					}
+					else if(tag != null && tag.Type() == Tag.Type.LIST && (tl = (Tag.ListTag)tag).Supports() == Tag.Type.BYTE)
+					{
+						byte[] arr = new byte[tl.size()];
+						for(int j = 0; j < arr.length; ++j)
+						{
+							arr[j] = ((Tag.ByteTag)tl.Get(j)).v;
+						}
+						return arr;
+					}
+					throw new FormatException("Could not find a ByteArray tag or ListTag of ByteTag tags with the name \""+name+"\"");
+				}
+
+				@Override
+				void WriteValue(DataOutputStream out, Object value, boolean preferList) throws IOException
+				{
+					byte[] arr = (byte[])value;
+					if(preferList)
+					{
+						WriteHeader(out, Tag.Type.LIST, encodedName);
+						out.writeByte(Tag.Type.BYTE.ordinal());
+					}
+					else
+					{
+						WriteHeader(out, Tag.Type.BYTEARRAY, encodedName);
+					}
+					out.writeInt(arr.length);
+					out.write(arr);
+				}
+
+				@Override
+				Object ReadValue(DataInputStream in, Tag.Type type, Object current) throws IOException, FormatException
+				{
+					int length = type == Tag.Type.BYTEARRAY ? ReadLength(in) : type == Tag.Type.LIST ? ReadListHeader(in, type, Tag.Type.BYTE, name) : -1;
+					if(length < 0)
+					{
+						throw new FormatException("Could not find a ByteArray tag or ListTag of ByteTag tags with the name \""+name+"\"");
+					}
+					byte[] arr = new byte[length];
+					in.readFully(arr);
+					return arr;
+				}
+			};
+		}
+		else if(type == int[].class)
+		{
+			return new ObjectCodec(n, getter, setter)
+			{
+				@Override
+				Tag Write(Object value, boolean preferList) throws FormatException
+				{
+					int[] arr = (int[])value;
+					if(!preferList)
+					{
+						return new Tag.IntArray(name, arr);
+					}
+					Tag.ListTag list = new Tag.ListTag(name, Tag.Type.INT);
+					for(int i : arr)
+					{
+						list.Add(new Tag.IntTag(null, i));
+					}
+					return list;
+				}
+
+				@Override
+				Object Read(Tag.Compound t, Object current) throws FormatException
+				{
+					Tag tag = t.get(name);
+					Tag.ListTag tl;
+					if(tag != null && tag.Type() == Tag.Type.INTARRAY)
+					{
+						int[] arr = ((Tag.IntArray)tag).v;
+						return Arrays.copyOf(arr, arr.length);
+					}
+					else if(tag != null && tag.Type() == Tag.Type.LIST && (tl = (Tag.ListTag)tag).Supports() == Tag.Type.INT)
+					{
+						int[] arr = new int[tl.size()];
+						for(int j = 0; j < arr.length; ++j)
+						{
+							arr[j] = ((Tag.IntTag)tl.Get(j)).v;
+						}
+						return arr;
+					}
+					throw new FormatException("Could not find an IntArray tag or ListTag of IntTag tags with the name \""+name+"\"");
+				}
+
+				@Override
+				void WriteValue(DataOutputStream out, Object value, boolean preferList) throws IOException
+				{
+					int[] arr = (int[])value;
+					if(preferList)
+					{
+						WriteHeader(out, Tag.Type.LIST, encodedName);
+						out.writeByte(Tag.Type.INT.ordinal());
+					}
+					else
+					{
+						WriteHeader(out, Tag.Type.INTARRAY, encodedName);
+					}
+					out.writeInt(arr.length);
+					for(int i : arr)
+					{
+						out.writeInt(i);
+					}
+				}
+
+				@Override
+				Object ReadValue(DataInputStream in, Tag.Type type, Object current) throws IOException, FormatException
+				{
+					int length = type == Tag.Type.INTARRAY ? ReadLength(in) : type == Tag.Type.LIST ? ReadListHeader(in, type, Tag.Type.INT, name) : -1;
+					if(length < 0)
+					{
+						throw new FormatException("Could not find an IntArray tag or ListTag of IntTag tags with the name \""+name+"\"");
+					}
+					int[] arr = new int[length];
+					for(int j = 0; j < length; ++j)
+					{
+						arr[j] = in.readInt();
+					}
+					return arr;
+				}
+			};
+		}
+		else if(type == short[].class || type == long[].class || type == float[].class || type == double[].class || type == String[].class)
+		{
+			final Tag.Type element = BoxedType(type.getComponentType());
+			return new ObjectCodec(n, getter, setter)
+			{
+				@Override
+				Tag Write(Object value, boolean preferList) throws FormatException
+				{
+					return WriteList(name, element, value);
+				}
+
+				@Override
+				Object Read(Tag.Compound t, Object current) throws FormatException
+				{
+					return ReadList(FindList(t, name, element), element);
+				}
+
+				@Override
+				void WriteValue(DataOutputStream out, Object value, boolean preferList) throws IOException
+				{
+					WriteHeader(out, Tag.Type.LIST, encodedName);
+					EncodeList(out, element, value);
+				}
+
+				@Override
+				Object ReadValue(DataInputStream in, Tag.Type type, Object current) throws IOException, FormatException
+				{
+					return DecodeList(in, element, ReadListHeader(in, type, element, name));
+				}
+			};
+		}
+		else if(type == Class.class)
+		{
+			return new ObjectCodec(n, getter, setter)
+			{
+				@Override
+				Tag Write(Object value, boolean preferList)
+				{
+					return new Tag.StringTag(name, ((Class<?>)value).getCanonicalName());
+				}
+
+				@Override
+				Object Read(Tag.Compound t, Object current) throws FormatException, ClassNotFoundException
+				{
+					return Class.forName(((Tag.StringTag)t.find(Tag.Type.STRING, name)).v);
+				}
+
+				@Override
+				void WriteValue(DataOutputStream out, Object value, boolean preferList) throws IOException
+				{
+					WriteHeader(out, Tag.Type.STRING, encodedName);
+					WriteString(out, ((Class<?>)value).getCanonicalName());
+				}
+
+				@Override
+				Object ReadValue(DataInputStream in, Tag.Type type, Object current) throws IOException, FormatException, ClassNotFoundException
+				{
+					CheckType(type, Tag.Type.STRING, name);
+					return Class.forName(ReadString(in));
+				}
+			};
+		}
+		if(!HasToNBT(type))
+		{
+			if(declared && CanHold(type))
+			{
+				//a field such as Object or Number is written as whatever it holds
+				return new RuntimeCodec(n, getter, setter);
+			}
+			else if(!declared)
+			{
+				return null;
+			}
+		}
+		return CreateCustom(n, type, getter, setter);
+	}
+
+	/**
+	 * The classes of the values that have their own codecs.
+	 */
+	private static final Class<?>[] SUPPORTED = {NBTable.class, NBTable[].class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, String.class, byte[].class, int[].class, short[].class, long[].class, float[].class, double[].class, String[].class, Class.class};
+
+	/**
+	 * Returns whether a field of the given type can hold a value that has its own codec.
+	 */
+	private static boolean CanHold(Class<?> type)
+	{
+		for(Class<?> c : SUPPORTED)
+		{
+			if(type.isAssignableFrom(c))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether a type declares a "ToNBT" method that takes a String and returns a tag.
+	 */
+	private static boolean HasToNBT(Class<?> type)
+	{
+		try
+		{
+			return Tag.class.isAssignableFrom(type.getDeclaredMethod("ToNBT", String.class).getReturnType());
+		}
+		catch(NoSuchMethodException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * The codec for a field whose declared type, such as Object or Number, is too general to say how to write it. The codec is picked from the class of the field's value instead, once per class, and a value that no codec can write is an error rather than being left out.
+	 */
+	private static final class RuntimeCodec extends FieldCodec
+	{
+		private final MethodHandle getter;
+		private final MethodHandle fieldGetter;
+		private final MethodHandle fieldSetter;
+		private final ConcurrentHashMap<Class<?>, FieldCodec> codecs = new ConcurrentHashMap<>();
+
+		RuntimeCodec(String name, MethodHandle getter, MethodHandle setter)
+		{
+			super(name);
+			this.getter = getter.asType(GET_OBJECT);
+			fieldGetter = getter;
+			fieldSetter = setter;
+		}
+
+		/**
+		 * Returns the codec for the class of a value.
+		 * @throws FormatException if no codec can write the value.
+		 */
+		private FieldCodec CodecFor(Object value) throws FormatException
+		{
+			Class<?> c = value.getClass();
+			FieldCodec codec = codecs.get(c);
+			if(codec == null)
+			{
+				codec = Create(name, c, fieldGetter, fieldSetter, false);
+				if(codec == null)
+				{
+					throw new FormatException("\"" + name + "\" holds a " + c.getName() + ", which can't be serialized");
+				}
+				codecs.putIfAbsent(c, codec);
+			}
+			return codec;
+		}
+
+		@Override
+		void Serialize(Object obj, Tag.Compound t, boolean preferList) throws Throwable
+		{
+			Object value = getter.invokeExact(obj);
+			if(value != null)
+			{
+				CodecFor(value).Serialize(obj, t, preferList);
+			}
+		}
+
+		@Override
+		void Deserialize(Object obj, Tag.Compound t) throws Throwable
+		{
+			Object current = getter.invokeExact(obj);
+			if(current != null)
+			{
+				CodecFor(current).Deserialize(obj, t);
+			}
+		}
+
+		@Override
+		void Encode(Object obj, DataOutputStream out, boolean preferList) throws Throwable
+		{
+			Object value = getter.invokeExact(obj);
+			if(value != null)
+			{
+				CodecFor(value).Encode(obj, out, preferList);
+			}
+		}
+
+		@Override
+		void Decode(Object obj, Tag.Type type, DataInputStream in) throws Throwable
+		{
+			Object current = getter.invokeExact(obj);
+			if(current != null)
+			{
+				CodecFor(current).Decode(obj, type, in);
+			}
+			else
+			{
+				com.github.omalley.clotho.NBT.IO.Skip(in, type);
+			}
+		}
+
+		@Override
+		boolean Required(Object obj) throws Throwable
+		{
+			Object current = getter.invokeExact(obj);
+			return current != null && CodecFor(current).Required(obj);
+		}
+	}
+
+	/**
+	 * Builds the codec for a field of a type that has a "ToNBT" method and a constructor that takes a tag. Without the method the field is left out, and without the constructor it can't be deserialized.
+	 */
+	private static FieldCodec CreateCustom(String n, Class<?> type, MethodHandle getter, MethodHandle setter)
+	{
+		MethodHandle toNBT = null;
+		try
+		{
+			Method m = type.getDeclaredMethod("ToNBT", String.class);
+			if(Tag.class.isAssignableFrom(m.getReturnType()))
+			{
+				m.setAccessible(true);
+				toNBT = LOOKUP.unreflect(m).asType(MethodType.methodType(Tag.class, Object.class, String.class));
+			}
+		}
+		catch(NoSuchMethodException | IllegalAccessException e)
+		{
+			// the field isn't serialized
+		}
+		MethodHandle fromNBT = null;
+		NoSuchMethodException missing = null;
+		try
+		{
+			Constructor<?> c = type.getConstructor(Tag.class);
+			c.setAccessible(true);
+			fromNBT = LOOKUP.unreflectConstructor(c).asType(MethodType.methodType(Object.class, Tag.class));
+		}
+		catch(NoSuchMethodException e)
+		{
+			missing = e;
+		}
+		catch(IllegalAccessException e)
+		{
+			throw new IllegalStateException("Can't use the constructor of " + type, e);
+		}
+		final MethodHandle write = toNBT;
+		final MethodHandle read = fromNBT;
+		final NoSuchMethodException noRead = missing;
+		return new ObjectCodec(n, getter, setter)
+		{
+			@Override
+			Tag Write(Object value, boolean preferList) throws Throwable
+			{
+				return write == null ? null : (Tag)write.invokeExact(value, name);
+			}
+
+			@Override
+			Object Read(Tag.Compound t, Object current) throws Throwable
+			{
+				if(read == null)
+				{
+					throw noRead;
+				}
+				return read.invokeExact(t.get(name));
+			}
+
+			@Override
+			void WriteValue(DataOutputStream out, Object value, boolean preferList) throws Throwable
+			{
+				Tag tag = Write(value, preferList);
+				if(tag != null)
+				{
+					tag.Serialize(out);
+				}
+			}
+
+			@Override
+			Object ReadValue(DataInputStream in, Tag.Type type, Object current) throws Throwable
+			{
+				if(read == null)
+				{
+					throw noRead;
+				}
+				return read.invokeExact(type.ToClass().getConstructor(String.class, InputStream.class).newInstance(name, in));
+			}
+
+			@Override
+			boolean Required(Object obj)
+			{
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Builds the codec for a field of a primitive type, which reads and writes the field without boxing.
+	 */
+	private static FieldCodec CreatePrimitive(String n, Class<?> type, MethodHandle getter, MethodHandle setter)
+	{
+		final MethodHandle get = getter.asType(MethodType.methodType(type, Object.class));
+		final MethodHandle set = setter.asType(MethodType.methodType(void.class, Object.class, type));
+		if(type == byte.class)
+		{
+			return new FieldCodec(n)
+			{
+				@Override
+				void Serialize(Object obj, Tag.Compound t, boolean preferList) throws Throwable
+				{
+					t.Add(new Tag.ByteTag(name, (byte)get.invokeExact(obj)));
+				}
+
+				@Override
+				void Deserialize(Object obj, Tag.Compound t) throws Throwable
+				{
+					set.invokeExact(obj, ((Tag.ByteTag)t.find(Tag.Type.BYTE, name)).v);
+				}
+
+				@Override
+				void Encode(Object obj, DataOutputStream out, boolean preferList) throws Throwable
+				{
+					WriteHeader(out, Tag.Type.BYTE, encodedName);
+					out.writeByte((byte)get.invokeExact(obj));
+				}
+
+				@Override
+				void Decode(Object obj, Tag.Type type, DataInputStream in) throws Throwable
+				{
+					CheckType(type, Tag.Type.BYTE, name);
+					set.invokeExact(obj, in.readByte());
+				}
+			};
+		}
+		else if(type == short.class)
+		{
+			return new FieldCodec(n)
+			{
+				@Override
+				void Serialize(Object obj, Tag.Compound t, boolean preferList) throws Throwable
+				{
+					t.Add(new Tag.ShortTag(name, (short)get.invokeExact(obj)));
+				}
+
+				@Override
+				void Deserialize(Object obj, Tag.Compound t) throws Throwable
+				{
+					set.invokeExact(obj, ((Tag.ShortTag)t.find(Tag.Type.SHORT, name)).v);
+				}
+
+				@Override
+				void Encode(Object obj, DataOutputStream out, boolean preferList) throws Throwable
+				{
+					WriteHeader(out, Tag.Type.SHORT, encodedName);
+					out.writeShort((short)get.invokeExact(obj));
+				}
+
+				@Override
+				void Decode(Object obj, Tag.Type type, DataInputStream in) throws Throwable
+				{
+					CheckType(type, Tag.Type.SHORT, name);
+					set.invokeExact(obj, in.readShort());
+				}
+			};
+		}
+		else if(type == int.class)
+		{
+			return new FieldCodec(n)
+			{
+				@Override
+				void Serialize(Object obj, Tag.Compound t, boolean preferList) throws Throwable
+				{
+					t.Add(new Tag.IntTag(name, (int)get.invokeExact(obj)));
+				}
+
+				@Override
+				void Deserialize(Object obj, Tag.Compound t) throws Throwable
+				{
+					set.invokeExact(obj, ((Tag.IntTag)t.find(Tag.Type.INT, name)).v);
+				}
+
+				@Override
+				void Encode(Object obj, DataOutputStream out, boolean preferList) throws Throwable
+				{
+					WriteHeader(out, Tag.Type.INT, encodedName);
+					out.writeInt((int)get.invokeExact(obj));
+				}
+
+				@Override
+				void Decode(Object obj, Tag.Type type, DataInputStream in) throws Throwable
+				{
+					CheckType(type, Tag.Type.INT, name);
+					set.invokeExact(obj, in.readInt());
+				}
+			};
+		}
+		else if(type == long.class)
+		{
+			return new FieldCodec(n)
+			{
+				@Override
+				void Serialize(Object obj, Tag.Compound t, boolean preferList) throws Throwable
+				{
+					t.Add(new Tag.LongTag(name, (long)get.invokeExact(obj)));
+				}
+
+				@Override
+				void Deserialize(Object obj, Tag.Compound t) throws Throwable
+				{
+					set.invokeExact(obj, ((Tag.LongTag)t.find(Tag.Type.LONG, name)).v);
+				}
+
+				@Override
+				void Encode(Object obj, DataOutputStream out, boolean preferList) throws Throwable
+				{
+					WriteHeader(out, Tag.Type.LONG, encodedName);
+					out.writeLong((long)get.invokeExact(obj));
+				}
+
+				@Override
+				void Decode(Object obj, Tag.Type type, DataInputStream in) throws Throwable
+				{
+					CheckType(type, Tag.Type.LONG, name);
+					set.invokeExact(obj, in.readLong());
+				}
+			};
+		}
+		else if(type == float.class)
+		{
+			return new FieldCodec(n)
+			{
+				@Override
+				void Serialize(Object obj, Tag.Compound t, boolean preferList) throws Throwable
+				{
+					t.Add(new Tag.FloatTag(name, (float)get.invokeExact(obj)));
+				}
+
+				@Override
+				void Deserialize(Object obj, Tag.Compound t) throws Throwable
+				{
+					set.invokeExact(obj, ((Tag.FloatTag)t.find(Tag.Type.FLOAT, name)).v);
+				}
+
+				@Override
+				void Encode(Object obj, DataOutputStream out, boolean preferList) throws Throwable
+				{
+					WriteHeader(out, Tag.Type.FLOAT, encodedName);
+					out.writeFloat((float)get.invokeExact(obj));
+				}
+
+				@Override
+				void Decode(Object obj, Tag.Type type, DataInputStream in) throws Throwable
+				{
+					CheckType(type, Tag.Type.FLOAT, name);
+					set.invokeExact(obj, in.readFloat());
+				}
+			};
+		}
+		else if(type == double.class)
+		{
+			return new FieldCodec(n)
+			{
+				@Override
+				void Serialize(Object obj, Tag.Compound t, boolean preferList) throws Throwable
+				{
+					t.Add(new Tag.DoubleTag(name, (double)get.invokeExact(obj)));
+				}
+
+				@Override
+				void Deserialize(Object obj, Tag.Compound t) throws Throwable
+				{
+					set.invokeExact(obj, ((Tag.DoubleTag)t.find(Tag.Type.DOUBLE, name)).v);
+				}
+
+				@Override
+				void Encode(Object obj, DataOutputStream out, boolean preferList) throws Throwable
+				{
+					WriteHeader(out, Tag.Type.DOUBLE, encodedName);
+					out.writeDouble((double)get.invokeExact(obj));
+				}
+
+				@Override
+				void Decode(Object obj, Tag.Type type, DataInputStream in) throws Throwable
+				{
+					CheckType(type, Tag.Type.DOUBLE, name);
+					set.invokeExact(obj, in.readDouble());
+				}
+			};
+		}
+		// boolean and char fields have no tag
+		return new FieldCodec(n)
+		{
+			@Override
+			void Serialize(Object obj, Tag.Compound t, boolean preferList)
+			{
+			}
+
+			@Override
+			void Deserialize(Object obj, Tag.Compound t)
+			{
+			}
+
+			@Override
+			void Encode(Object obj, DataOutputStream out, boolean preferList)
+			{
+			}
+
+			@Override
+			void Decode(Object obj, Tag.Type type, DataInputStream in) throws IOException, FormatException
+			{
+				com.github.omalley.clotho.NBT.IO.Skip(in, type);
+			}
+
+			@Override
+			boolean Required(Object obj)
+			{
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Makes the list tag for a short, long, float, double, or string array.
+	 */
+	private static Tag.ListTag WriteList(String name, Tag.Type element, Object value) throws FormatException
+	{
+		Tag.ListTag list = new Tag.ListTag(name, element);
+		switch(element)
+		{
+			case SHORT:
+				for(short v : (short[])value)
+				{
+					list.Add(new Tag.ShortTag(null, v));
+				}
+				break;
+			case LONG:
+				for(long v : (long[])value)
+				{
+					list.Add(new Tag.LongTag(null, v));
+				}
+				break;
+			case FLOAT:
+				for(float v : (float[])value)
+				{
+					list.Add(new Tag.FloatTag(null, v));
+				}
+				break;
+			case DOUBLE:
+				for(double v : (double[])value)
+				{
+					list.Add(new Tag.DoubleTag(null, v));
+				}
+				break;
+			default:
+				for(String v : (String[])value)
+				{
+					list.Add(new Tag.StringTag(null, v));
+				}
+				break;
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the array from a list tag made by {@link #WriteList}.
+	 */
+	private static Object ReadList(Tag.ListTag list, Tag.Type element)
+	{
+		switch(element)
+		{
+			case SHORT:
+				short[] shorts = new short[list.size()];
+				for(int i = 0; i < shorts.length; ++i)
+				{
+					shorts[i] = ((Tag.ShortTag)list.Get(i)).v;
+				}
+				return shorts;
+			case LONG:
+				long[] longs = new long[list.size()];
+				for(int i = 0; i < longs.length; ++i)
+				{
+					longs[i] = ((Tag.LongTag)list.Get(i)).v;
+				}
+				return longs;
+			case FLOAT:
+				float[] floats = new float[list.size()];
+				for(int i = 0; i < floats.length; ++i)
+				{
+					floats[i] = ((Tag.FloatTag)list.Get(i)).v;
+				}
+				return floats;
+			case DOUBLE:
+				double[] doubles = new double[list.size()];
+				for(int i = 0; i < doubles.length; ++i)
+				{
+					doubles[i] = ((Tag.DoubleTag)list.Get(i)).v;
+				}
+				return doubles;
+			default:
+				String[] strings = new String[list.size()];
+				for(int i = 0; i < strings.length; ++i)
+				{
+					strings[i] = ((Tag.StringTag)list.Get(i)).v;
+				}
+				return strings;
+		}
+	}
+
+	/**
+	 * Returns the tag type for a boxed, primitive, or string class.
+	 */
+	private static Tag.Type BoxedType(Class<?> type)
+	{
+		if(type == Byte.class || type == byte.class)
+		{
+			return Tag.Type.BYTE;
+		}
+		else if(type == Short.class || type == short.class)
+		{
+			return Tag.Type.SHORT;
+		}
+		else if(type == Integer.class || type == int.class)
+		{
+			return Tag.Type.INT;
+		}
+		else if(type == Long.class || type == long.class)
+		{
+			return Tag.Type.LONG;
+		}
+		else if(type == Float.class || type == float.class)
+		{
+			return Tag.Type.FLOAT;
+		}
+		else if(type == Double.class || type == double.class)
+		{
+			return Tag.Type.DOUBLE;
+		}
+		return Tag.Type.STRING;
+	}
+
+	/**
+	 * Makes the tag for a boxed value or string.
+	 */
+	private static Tag Box(String name, Tag.Type type, Object value)
+	{
+		switch(type)
+		{
+			case BYTE:
+				return new Tag.ByteTag(name, (Byte)value);
+			case SHORT:
+				return new Tag.ShortTag(name, (Short)value);
+			case INT:
+				return new Tag.IntTag(name, (Integer)value);
+			case LONG:
+				return new Tag.LongTag(name, (Long)value);
+			case FLOAT:
+				return new Tag.FloatTag(name, (Float)value);
+			case DOUBLE:
+				return new Tag.DoubleTag(name, (Double)value);
+			default:
+				return new Tag.StringTag(name, (String)value);
+		}
+	}
+
+	/**
+	 * Returns the boxed value or string of a tag from {@link #Box}.
+	 */
+	private static Object Unbox(Tag tag)
+	{
+		switch(tag.Type())
+		{
+			case BYTE:
+				return ((Tag.ByteTag)tag).v;
+			case SHORT:
+				return ((Tag.ShortTag)tag).v;
+			case INT:
+				return ((Tag.IntTag)tag).v;
+			case LONG:
+				return ((Tag.LongTag)tag).v;
+			case FLOAT:
+				return ((Tag.FloatTag)tag).v;
+			case DOUBLE:
+				return ((Tag.DoubleTag)tag).v;
+			default:
+				return ((Tag.StringTag)tag).v;
+		}
+	}
+
+	/**
+	 * Writes the type and name of a tag.
+	 */
+	private static void WriteHeader(DataOutputStream out, Tag.Type type, byte[] name) throws IOException
+	{
+		out.writeByte(type.ordinal());
+		out.writeShort(name.length);
+		out.write(name);
+	}
+
+	static void WriteString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] str = s.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(str.length);
+		out.write(str);
+	}
+
+	static String ReadString(DataInputStream in) throws IOException, FormatException
+	{
+		byte[] str = new byte[ReadLength(in.readShort())];
+		in.readFully(str);
+		return new String(str, StandardCharsets.UTF_8);
+	}
+
+	private static int ReadLength(DataInputStream in) throws IOException, FormatException
+	{
+		return ReadLength(in.readInt());
+	}
+
+	private static int ReadLength(int length) throws FormatException
+	{
+		if(length < 0)
+		{
+			throw new FormatException("Negative tag length " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Checks that a tag has the type that its field needs, with the same message as {@link Tag.Compound#find}.
+	 */
+	private static void CheckType(Tag.Type type, Tag.Type expected, String name) throws FormatException
+	{
+		if(type != expected)
+		{
+			throw new FormatException("\"" + name + "\" is " + type + " instead of " + expected);
+		}
+	}
+
+	/**
+	 * Reads the header of a list tag that must hold the given type of tags.
+	 * @return The number of tags in the list.
+	 */
+	private static int ReadListHeader(DataInputStream in, Tag.Type type, Tag.Type element, String name) throws IOException, FormatException
+	{
+		CheckType(type, Tag.Type.LIST, name);
+		Tag.Type actual = com.github.omalley.clotho.NBT.IO.ReadType(in);
+		int length = ReadLength(in);
+		// empty lists are often written as lists of TAG_End
+		if(actual != element && !(actual == Tag.Type.END && length == 0))
+		{
+			throw new FormatException("Expected list of "+element.ToClass().getSimpleName()+" tags, got list of: "+actual);
+		}
+		return length;
+	}
+
+	/**
+	 * Writes the payload of a boxed value or string.
+	 */
+	private static void WriteBoxed(DataOutputStream out, Tag.Type type, Object value) throws IOException
+	{
+		switch(type)
+		{
+			case BYTE:
+				out.writeByte((Byte)value);
+				break;
+			case SHORT:
+				out.writeShort((Short)value);
+				break;
+			case INT:
+				out.writeInt((Integer)value);
+				break;
+			case LONG:
+				out.writeLong((Long)value);
+				break;
+			case FLOAT:
+				out.writeFloat((Float)value);
+				break;
+			case DOUBLE:
+				out.writeDouble((Double)value);
+				break;
+			default:
+				WriteString(out, (String)value);
+				break;
+		}
+	}
+
+	/**
+	 * Reads the payload that {@link #WriteBoxed} wrote.
+	 */
+	private static Object ReadBoxed(DataInputStream in, Tag.Type type) throws IOException, FormatException
+	{
+		switch(type)
+		{
+			case BYTE:
+				return in.readByte();
+			case SHORT:
+				return in.readShort();
+			case INT:
+				return in.readInt();
+			case LONG:
+				return in.readLong();
+			case FLOAT:
+				return in.readFloat();
+			case DOUBLE:
+				return in.readDouble();
+			default:
+				return ReadString(in);
+		}
+	}
+
+	/**
+	 * Writes the payload of a list tag holding a short, long, float, double, or string array.
+	 */
+	private static void EncodeList(DataOutputStream out, Tag.Type element, Object value) throws IOException
+	{
+		out.writeByte(element.ordinal());
+		switch(element)
+		{
+			case SHORT:
+				short[] shorts = (short[])value;
+				out.writeInt(shorts.length);
+				for(short v : shorts)
+				{
+					out.writeShort(v);
+				}
+				break;
+			case LONG:
+				long[] longs = (long[])value;
+				out.writeInt(longs.length);
+				for(long v : longs)
+				{
+					out.writeLong(v);
+				}
+				break;
+			case FLOAT:
+				float[] floats = (float[])value;
+				out.writeInt(floats.length);
+				for(float v : floats)
+				{
+					out.writeFloat(v);
+				}
+				break;
+			case DOUBLE:
+				double[] doubles = (double[])value;
+				out.writeInt(doubles.length);
+				for(double v : doubles)
+				{
+					out.writeDouble(v);
+				}
+				break;
+			default:
+				String[] strings = (String[])value;
+				out.writeInt(strings.length);
+				for(String v : strings)
+				{
+					WriteString(out, v);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Reads the elements of a list tag that {@link #EncodeList} wrote.
+	 */
+	private static Object DecodeList(DataInputStream in, Tag.Type element, int length) throws IOException, FormatException
+	{
+		switch(element)
+		{
+			case SHORT:
+				short[] shorts = new short[length];
+				for(int i = 0; i < length; ++i)
+				{
+					shorts[i] = in.readShort();
+				}
+				return shorts;
+			case LONG:
+				long[] longs = new long[length];
+				for(int i = 0; i < length; ++i)
+				{
+					longs[i] = in.readLong();
+				}
+				return longs;
+			case FLOAT:
+				float[] floats = new float[length];
+				for(int i = 0; i < length; ++i)
+				{
+					floats[i] = in.readFloat();
+				}
+				return floats;
+			case DOUBLE:
+				double[] doubles = new double[length];
+				for(int i = 0; i < length; ++i)
+				{
+					doubles[i] = in.readDouble();
+				}
+				return doubles;
+			default:
+				String[] strings = new String[length];
+				for(int i = 0; i < length; ++i)
+				{
+					strings[i] = ReadString(in);
+				}
+				return strings;
+		}
+	}
+
+	/**
+	 * Finds a list tag that holds the given type of tags.
+	 */
+	private static Tag.ListTag FindList(Tag.Compound t, String name, Tag.Type element) throws FormatException
+	{
+		Tag.ListTag list = (Tag.ListTag)t.find(Tag.Type.LIST, name);
+		if(list.Supports() != element)
+		{
+			throw new FormatException("Expected list of "+element.ToClass().getSimpleName()+" tags, got list of: "+list.Supports());
+		}
+		return list;
+	}
+}
@@ -15,7 +15,6 @@ package com.github.omalley.clotho.NBT;
 
 import com.google.gson.stream.JsonWriter;
 
-import javax.xml.bind.DatatypeConverter;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.DataInputStream;
@@ -24,14 +23,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Iterator;
 import java.util.Collection;
-import java.util.Set;
 
 /**
  * The main class used by this NBT package, its static subclasses extend and implement it. The equals() and hashCode() methods are based entirely on the name of the tag.
@@ -46,6 +44,11 @@ public abstract class Tag implements Cloneable {
    */
   private String name;
 
+  /**
+   * Whether this tag and the tags under it can no longer be changed.
+   */
+  private boolean frozen = false;
+
   /**
    * The sole constructor for the abstract tag class.
    *
@@ -65,49 +68,67 @@ public abstract class Tag implements Cloneable {
   }
 
   /**
-   * Write the tag recursively as Json.
-   *
-   * @param writer    the stream to write to
-   * @param recursive the method to use recursively
+   * The names of the types in typed Json, indexed by the type's ordinal.
    */
-  abstract void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException;
-
-  void writeTypedJson(JsonWriter writer,
-                      Method recursive) throws IOException {
-    writer.beginObject();
-    writer.name("type");
-    writer.value(Type().toString().toLowerCase());
-    writer.name("value");
-    writeJson(writer, recursive);
-    writer.endObject();
-  }
-
-  static final Method UNTYPED_JSON;
-  static final Method TYPED_JSON;
+  static final String[] JSON_TYPES = new String[Type.values().length];
 
   static {
-    try {
-      UNTYPED_JSON = Tag.class.getDeclaredMethod("writeJson", JsonWriter.class,
-          Method.class);
-      UNTYPED_JSON.setAccessible(true);
-      TYPED_JSON = Tag.class.getDeclaredMethod("writeTypedJson",
-          JsonWriter.class, Method.class);
-      TYPED_JSON.setAccessible(true);
-    } catch (NoSuchMethodException e) {
-      throw new IllegalArgumentException("bad method", e);
+    for (Type type : Type.values()) {
+      JSON_TYPES[type.ordinal()] = type.toString().toLowerCase();
     }
   }
 
+  /**
+   * Write the tag's value as Json.
+   *
+   * @param writer       the stream to write to
+   * @param includeTypes whether to wrap each child in an object with its type
+   * @param arrays       how to write byte and int arrays
+   */
+  abstract void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                               ArrayEncoding arrays) throws IOException;
+
+  /**
+   * Write the tag recursively as Json with the arrays in hex.
+   *
+   * @param writer       the stream to write to
+   * @param includeTypes whether to wrap each value in an object with its type
+   */
   public void writeJson(JsonWriter writer,
                         boolean includeTypes) throws IOException {
+    writeJson(writer, includeTypes, ArrayEncoding.HEX);
+  }
+
+  /**
+   * Write the tag recursively as Json.
+   *
+   * @param writer       the stream to write to
+   * @param includeTypes whether to wrap each value in an object with its type
+   * @param arrays       how to write byte and int arrays
+   */
+  public void writeJson(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
     if (includeTypes) {
-      writeTypedJson(writer, TYPED_JSON);
+      writer.beginObject();
+      writeJsonType(writer);
+      writer.name("value");
+      writeJsonValue(writer, true, arrays);
+      writer.endObject();
     } else {
-      writeJson(writer, UNTYPED_JSON);
+      writeJsonValue(writer, false, arrays);
     }
   }
 
+  /**
+   * Write the entries of a typed Json object that describe the tag's type.
+   *
+   * @param writer the stream to write to
+   */
+  void writeJsonType(JsonWriter writer) throws IOException {
+    writer.name("type");
+    writer.value(JSON_TYPES[Type().ordinal()]);
+  }
+
   public void printJson(boolean types) {
     try {
       JsonWriter writer = new JsonWriter(new PrintWriter(System.out));
@@ -336,14 +357,16 @@ public abstract class Tag implements Cloneable {
   }
 
   /**
-   * Returns an independent clone of this tag.
+   * Returns an independent clone of this tag. The clone can always be changed, even if this tag is frozen.
    *
    * @return An independent clone of this tag.
    */
   @Override
   public Tag clone() {
     try {
-      return (Tag) super.clone();
+      Tag t = (Tag) super.clone();
+      t.frozen = false;
+      return t;
     } catch (CloneNotSupportedException e) {
       throw new IllegalArgumentException(e);
     }
@@ -363,6 +386,37 @@ public abstract class Tag implements Cloneable {
     return t;
   }
 
+  /**
+   * Makes this tag and all of the tags under it immutable, so the tree can be cached and read by many threads at once without locks or defensive copies. The methods that would change a frozen tag throw instead, and {@link #clone()} returns a tree that can be changed again.
+   * The public <code>v</code> fields can't be guarded, so they and the contents of the arrays must be treated as read only once a tag is frozen. As with any object, a frozen tree must still be handed to other threads safely, such as through a concurrent collection or a final field.
+   *
+   * @return This tag.
+   */
+  public Tag freeze() {
+    frozen = true;
+    return this;
+  }
+
+  /**
+   * Returns whether this tag has been frozen.
+   *
+   * @return Whether this tag has been frozen.
+   */
+  public final boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * Checks that this tag may still be changed.
+   *
+   * @throws UnsupportedOperationException if this tag has been frozen.
+   */
+  protected final void checkMutable() throws UnsupportedOperationException {
+    if (frozen) {
+      throw new UnsupportedOperationException(Type() + QuoteName() + " is frozen");
+    }
+  }
+
   /**
    * TAG_End
    */
@@ -387,8 +441,8 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
       // PASS
     }
 
@@ -467,8 +521,8 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
       writer.value(v);
     }
 
@@ -538,8 +592,8 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
       writer.value(v);
     }
 
@@ -609,8 +663,8 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
       writer.value(v);
     }
 
@@ -680,8 +734,8 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
       writer.value(v);
     }
 
@@ -751,8 +805,8 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
       writer.value(v);
     }
 
@@ -822,8 +876,8 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
       writer.value(v);
     }
 
@@ -900,9 +954,9 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
-      writer.value(DatatypeConverter.printHexBinary(v));
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
+      arrays.write(writer, v);
     }
 
     /**
@@ -1002,8 +1056,8 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
       writer.value(v);
     }
 
@@ -1101,7 +1155,13 @@ public abstract class Tag implements Cloneable {
     }
 
     public void setDouble(int posn, double value) {
-      ((DoubleTag) list.get(posn)).v = value;
+      checkMutable();
+      DoubleTag t = (DoubleTag) list.get(posn);
+      if (t.isFrozen()) {
+        list.set(posn, new DoubleTag(null, value));
+      } else {
+        t.v = value;
+      }
     }
 
     public float getFloat(int posn) {
@@ -1109,19 +1169,29 @@ public abstract class Tag implements Cloneable {
     }
 
     public void setFloat(int posn, float value) {
-      ((FloatTag) list.get(posn)).v = value;
+      checkMutable();
+      FloatTag t = (FloatTag) list.get(posn);
+      if (t.isFrozen()) {
+        list.set(posn, new FloatTag(null, value));
+      } else {
+        t.v = value;
+      }
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
+    void writeJsonType(JsonWriter writer) throws IOException {
+      super.writeJsonType(writer);
+      // an empty list has no elements to carry the type
+      writer.name("element");
+      writer.value(JSON_TYPES[type.ordinal()]);
+    }
+
+    @Override
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
       writer.beginArray();
       for (Tag child : list) {
-        try {
-          recursive.invoke(child, writer, recursive);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-          throw new IllegalArgumentException("bad invoke", e);
-        }
+        child.writeJson(writer, includeTypes, arrays);
       }
       writer.endArray();
     }
@@ -1177,6 +1247,7 @@ public abstract class Tag implements Cloneable {
      * @throws Tag.Type.MismatchException if the tag is of a type not supported by this tags.
      */
     public void Add(Tag... tags) throws FormatException {
+      checkMutable();
       for (Tag t : tags) {
         if (t.getName() != null) {
           throw new FormatException("Tags in Lists must have null names; given tag had name: \"" + t.getName() + "\"");
@@ -1194,6 +1265,7 @@ public abstract class Tag implements Cloneable {
      * @throws Tag.Type.MismatchException if the tags in the given list are not supported by this list.
      */
     public void AddFrom(ListTag l) throws FormatException {
+      checkMutable();
       if (l.Supports() != type) {
         throw new FormatException(type + " required, given list of " + l.Supports());
       }
@@ -1231,6 +1303,7 @@ public abstract class Tag implements Cloneable {
      * @throws Tag.Type.MismatchException if the tag is of a type not supported by this tags.
      */
     public void Set(int index, Tag t) throws FormatException {
+      checkMutable();
       if (t.Type() != type) {
         throw new FormatException(type + " required, given " + t.Type());
       }
@@ -1244,6 +1317,7 @@ public abstract class Tag implements Cloneable {
      * @param tags  The tags to insert.
      */
     public void Insert(int index, Tag... tags) {
+      checkMutable();
       for (Tag t : tags) {
         if (t.getName() != null) {
           throw new IllegalArgumentException("Tags in Lists must have null names; given tag had name: \"" + t.getName() + "\"");
@@ -1262,6 +1336,7 @@ public abstract class Tag implements Cloneable {
      * @throws Tag.Type.MismatchException if the tags in the given list are not supported by this list.
      */
     public void InsertFrom(int index, ListTag l) throws Type.MismatchException {
+      checkMutable();
       if (l.Supports() != type) {
         throw new Type.MismatchException(type + " required, given list of " + l.Supports());
       }
@@ -1293,6 +1368,22 @@ public abstract class Tag implements Cloneable {
       return list.get(index);
     }
 
+    /**
+     * Getter for a tag in this list tag that is about to be changed. A frozen tag is first replaced by a clone of itself that still shares the frozen tags inside it, so changing a clone of a frozen tree only copies the tags on the way down to the change.
+     *
+     * @param index The index to get a tag from.
+     * @return The tag at the specified index, which can be changed.
+     */
+    public Tag GetMutable(int index) {
+      checkMutable();
+      Tag t = list.get(index);
+      if (t.isFrozen()) {
+        t = t.clone();
+        list.set(index, t);
+      }
+      return t;
+    }
+
     /**
      * Removes the tag at the specified index from this list tag.
      *
@@ -1300,6 +1391,7 @@ public abstract class Tag implements Cloneable {
      * @return The tag that was removed.
      */
     public Tag Remove(int index) {
+      checkMutable();
       return list.remove(index);
     }
 
@@ -1319,20 +1411,40 @@ public abstract class Tag implements Cloneable {
      */
     @Override
     public Iterator<Tag> iterator() {
+      if (isFrozen()) {
+        return Collections.unmodifiableList(list).iterator();
+      }
       return list.iterator();
     }
 
     /**
-     * Returns an independent clone of this ListTag tag.
+     * Freezes this list tag and all of the tags in it.
+     *
+     * @return This list tag.
+     */
+    @Override
+    public ListTag freeze() {
+      if (!isFrozen()) {
+        for (Tag t : list) {
+          t.freeze();
+        }
+        super.freeze();
+      }
+      return this;
+    }
+
+    /**
+     * Returns an independent clone of this ListTag tag. Frozen tags in the list are shared rather than copied, since neither list can change them; use {@link #GetMutable} to change one.
      *
      * @return An independent clone of this ListTag tag.
      */
     @Override
     public ListTag clone() {
       ListTag li = (ListTag) super.clone();
-      li.list = new ArrayList<>();
+      li.list = new ArrayList<>(list.size());
       for (int i = 0; i < list.size(); ++i) {
-        li.list.add(list.get(i).clone());
+        Tag t = list.get(i);
+        li.list.add(t.isFrozen() ? t : t.clone());
       }
       return li;
     }
@@ -1345,7 +1457,7 @@ public abstract class Tag implements Cloneable {
     /**
      * The list of tags in this compound tag.
      */
-    private HashMap<String, Tag> tags = new HashMap<>();
+    private LinkedHashMap<String, Tag> tags = new LinkedHashMap<>();
 
     /**
      * The normal constructor.
@@ -1393,20 +1505,13 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
-      Set<String> keySet = tags.keySet();
-      String[] keys = keySet.toArray(new String[keySet.size()]);
-      Arrays.sort(keys);
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
+      // the tags are written in the order they were read or added
       writer.beginObject();
-      for (String key : keys) {
-        Tag child = tags.get(key);
+      for (Tag child : tags.values()) {
         writer.name(child.getName());
-        try {
-          recursive.invoke(child, writer, recursive);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-          throw new IllegalArgumentException("bad invoke", e);
-        }
+        child.writeJson(writer, includeTypes, arrays);
       }
       writer.endObject();
     }
@@ -1470,6 +1575,7 @@ public abstract class Tag implements Cloneable {
      * @throws IllegalArgumentException if the name of one of the given tags is null.
      */
     public void Add(Tag... tags) throws IllegalArgumentException {
+      checkMutable();
       for (Tag t : tags) {
         String n = t.getName();
         if (n == null) {
@@ -1488,6 +1594,7 @@ public abstract class Tag implements Cloneable {
      * @param c The compound tag from which to add the tags.
      */
     public void AddFrom(Tag.Compound c) {
+      checkMutable();
       tags.putAll(c.tags);
     }
 
@@ -1522,6 +1629,22 @@ public abstract class Tag implements Cloneable {
       return tags.get(name);
     }
 
+    /**
+     * Returns the tag with the given name when it is about to be changed. A frozen tag is first replaced by a clone of itself that still shares the frozen tags inside it, so changing a clone of a frozen tree only copies the tags on the way down to the change.
+     *
+     * @param name The name of the tag.
+     * @return The tag with the given name, which can be changed, or null if the tag does not exist.
+     */
+    public Tag getMutable(String name) {
+      checkMutable();
+      Tag t = tags.get(name);
+      if (t != null && t.isFrozen()) {
+        t = t.clone();
+        tags.put(name, t);
+      }
+      return t;
+    }
+
     public Byte getByte(String field) {
       Tag t = tags.get(field);
       if (t == null) {
@@ -1595,112 +1718,121 @@ public abstract class Tag implements Cloneable {
     }
 
     public void setByte(String field, Byte value) {
+      checkMutable();
       if (value == null) {
         tags.remove(field);
       } else {
-        if (!tags.containsKey(field)) {
-          ByteTag t = new ByteTag(field, value);
-          tags.put(field, t);
+        ByteTag t = (ByteTag) tags.get(field);
+        if (t == null || t.isFrozen()) {
+          tags.put(field, new ByteTag(field, value));
         } else {
-          ((ByteTag) tags.get(field)).v = value;
+          t.v = value;
         }
       }
     }
 
     public void setByteArray(String field, byte[] value) {
+      checkMutable();
       if (value == null) {
         tags.remove(field);
       } else {
-        if (!tags.containsKey(field)) {
-          ByteArray t = new ByteArray(field, value);
-          tags.put(field, t);
+        ByteArray t = (ByteArray) tags.get(field);
+        if (t == null || t.isFrozen()) {
+          tags.put(field, new ByteArray(field, value));
         } else {
-          ((ByteArray) tags.get(field)).v = value;
+          t.v = value;
         }
       }
     }
 
     public void setShort(String field, Short value) {
+      checkMutable();
       if (value == null) {
         tags.remove(field);
       } else {
-        if (!tags.containsKey(field)) {
-          ShortTag t = new ShortTag(field, value);
-          tags.put(field, t);
+        ShortTag t = (ShortTag) tags.get(field);
+        if (t == null || t.isFrozen()) {
+          tags.put(field, new ShortTag(field, value));
         } else {
-          ((ShortTag) tags.get(field)).v = value;
+          t.v = value;
         }
       }
     }
 
     public void setInteger(String field, Integer value) {
+      checkMutable();
       if (value == null) {
         tags.remove(field);
       } else {
-        if (!tags.containsKey(field)) {
-          IntTag t = new IntTag(field, value);
-          tags.put(field, t);
+        IntTag t = (IntTag) tags.get(field);
+        if (t == null || t.isFrozen()) {
+          tags.put(field, new IntTag(field, value));
         } else {
-          ((IntTag) tags.get(field)).v = value;
+          t.v = value;
         }
       }
     }
 
     public void setLong(String field, Long value) {
+      checkMutable();
       if (value == null) {
         tags.remove(field);
       } else {
-        if (!tags.containsKey(field)) {
-          LongTag t = new LongTag(field, value);
-          tags.put(field, t);
+        LongTag t = (LongTag) tags.get(field);
+        if (t == null || t.isFrozen()) {
+          tags.put(field, new LongTag(field, value));
         } else {
-          ((LongTag) tags.get(field)).v = value;
+          t.v = value;
         }
       }
     }
 
     public void setString(String field, String value) {
+      checkMutable();
       if (value == null) {
         tags.remove(field);
       } else {
-        if (!tags.containsKey(field)) {
-          StringTag t = new StringTag(field, value);
-          tags.put(field, t);
+        StringTag t = (StringTag) tags.get(field);
+        if (t == null || t.isFrozen()) {
+          tags.put(field, new StringTag(field, value));
         } else {
-          ((StringTag) tags.get(field)).v = value;
+          t.v = value;
         }
       }
     }
 
     public void setDouble(String field, Double value) {
+      checkMutable();
       if (value == null) {
         tags.remove(field);
       } else {
-        if (!tags.containsKey(field)) {
-          DoubleTag t = new DoubleTag(field, value);
-          tags.put(field, t);
+        DoubleTag t = (DoubleTag) tags.get(field);
+        if (t == null || t.isFrozen()) {
+          tags.put(field, new DoubleTag(field, value));
         } else {
-          ((DoubleTag) tags.get(field)).v = value;
+          t.v = value;
         }
       }
     }
 
     public void setFloat(String field, Float value) {
+      checkMutable();
       if (value == null) {
         tags.remove(field);
       } else {
-        if (!tags.containsKey(field)) {
-          FloatTag t = new FloatTag(field, value);
-          tags.put(field, t);
+        FloatTag t = (FloatTag) tags.get(field);
+        if (t == null || t.isFrozen()) {
+          tags.put(field, new FloatTag(field, value));
         } else {
-          ((FloatTag) tags.get(field)).v = value;
+          t.v = value;
         }
       }
     }
 
     public void setFloatList(String field,
                              float... values) throws FormatException {
-      ListTag t = (ListTag) tags.get(field);
+      checkMutable();
+      ListTag t = (ListTag) getMutable(field);
       if (t == null) {
         t = new ListTag(field, Type.FLOAT);
         tags.put(field, t);
@@ -1711,6 +1843,7 @@ public abstract class Tag implements Cloneable {
     }
 
     public ListTag createCompoundList(String field) {
+      checkMutable();
       ListTag t = new ListTag(field, Type.COMPOUND);
       tags.put(field, t);
       return t;
@@ -1718,7 +1851,8 @@ public abstract class Tag implements Cloneable {
 
     public void setDoubleList(String field,
                               double... values) throws FormatException {
-      ListTag t = (ListTag) tags.get(field);
+      checkMutable();
+      ListTag t = (ListTag) getMutable(field);
       if (t == null) {
         t = new ListTag(field, Type.DOUBLE);
         tags.put(field, t);
@@ -1753,6 +1887,7 @@ public abstract class Tag implements Cloneable {
      * @return The tag that was removed, or null if the tag didn't exist.
      */
     public Tag Remove(String n) {
+      checkMutable();
       return tags.remove(n);
     }
 
@@ -1763,23 +1898,147 @@ public abstract class Tag implements Cloneable {
      */
     @Override
     public Iterator<Tag> iterator() {
+      if (isFrozen()) {
+        return Collections.unmodifiableCollection(tags.values()).iterator();
+      }
       return tags.values().iterator();
     }
 
     /**
-     * Returns an independent clone of this Compound tag.
+     * Freezes this compound tag and all of the tags in it.
+     *
+     * @return This compound tag.
+     */
+    @Override
+    public Compound freeze() {
+      if (!isFrozen()) {
+        for (Tag t : tags.values()) {
+          t.freeze();
+        }
+        super.freeze();
+      }
+      return this;
+    }
+
+    /**
+     * Returns an independent clone of this Compound tag. Frozen tags in the compound are shared rather than copied, since neither compound can change them; use {@link #getMutable} to change one. Cloning a frozen chunk therefore copies only its top level, and each edit copies only the tags above it.
      *
      * @return An independent clone of this Compound tag.
      */
     @Override
     public Compound clone() {
       Compound c = (Compound) super.clone();
-      c.tags = new HashMap<>();
+      c.tags = new LinkedHashMap<>(tags.size() * 4 / 3 + 1);
       for (Map.Entry<String, Tag> e : tags.entrySet()) {
-        c.tags.put(e.getKey(), e.getValue().clone());
+        Tag t = e.getValue();
+        c.tags.put(e.getKey(), t.isFrozen() ? t : t.clone());
       }
       return c;
     }
+
+    /**
+     * Builds a compound tag that is frozen once it is complete, for trees that are made to be shared.
+     */
+    public static final class Builder {
+      /**
+       * The compound tag being built, or null once it has been built.
+       */
+      private Compound compound;
+
+      /**
+       * Starts an empty compound tag.
+       *
+       * @param name The name of the compound tag.
+       */
+      public Builder(String name) {
+        compound = new Compound(name);
+      }
+
+      /**
+       * Returns the compound tag being built.
+       *
+       * @throws IllegalStateException if the compound tag has already been built.
+       */
+      private Compound current() {
+        if (compound == null) {
+          throw new IllegalStateException("The compound tag was already built");
+        }
+        return compound;
+      }
+
+      /**
+       * Adds the tags to the compound tag.
+       *
+       * @param tags The tags to be added.
+       * @return This builder.
+       * @throws IllegalArgumentException if the name of one of the given tags is null.
+       */
+      public Builder Add(Tag... tags) throws IllegalArgumentException {
+        current().Add(tags);
+        return this;
+      }
+
+      public Builder setByte(String field, byte value) {
+        return Add(new ByteTag(field, value));
+      }
+
+      public Builder setShort(String field, short value) {
+        return Add(new ShortTag(field, value));
+      }
+
+      public Builder setInteger(String field, int value) {
+        return Add(new IntTag(field, value));
+      }
+
+      public Builder setLong(String field, long value) {
+        return Add(new LongTag(field, value));
+      }
+
+      public Builder setFloat(String field, float value) {
+        return Add(new FloatTag(field, value));
+      }
+
+      public Builder setDouble(String field, double value) {
+        return Add(new DoubleTag(field, value));
+      }
+
+      public Builder setString(String field, String value) {
+        return Add(new StringTag(field, value));
+      }
+
+      public Builder setByteArray(String field, byte[] value) {
+        return Add(new ByteArray(field, value));
+      }
+
+      public Builder setIntArray(String field, int[] value) {
+        return Add(new IntArray(field, value));
+      }
+
+      /**
+       * Adds a list tag holding the given tags.
+       *
+       * @param field The name of the list tag.
+       * @param type  The tag type the list supports.
+       * @param tags  The tags in the list, which must not have names.
+       * @return This builder.
+       * @throws IllegalArgumentException if a given tag is not of the type or has a name.
+       */
+      public Builder setList(String field, Type type, Tag... tags) throws IllegalArgumentException {
+        return Add(new ListTag(field, type, tags));
+      }
+
+      /**
+       * Finishes the compound tag. The arrays that were given are kept rather than copied, so they must not be changed afterwards.
+       *
+       * @return The frozen compound tag.
+       * @throws IllegalStateException if the compound tag has already been built.
+       */
+      public Compound build() {
+        Compound c = current();
+        compound = null;
+        return c.freeze();
+      }
+    }
   }
 
   /**
@@ -1825,13 +2084,9 @@ public abstract class Tag implements Cloneable {
     }
 
     @Override
-    public void writeJson(JsonWriter writer,
-                          Method recursive) throws IOException {
-      writer.beginArray();
-      for (int value : v) {
-        writer.value(value);
-      }
-      writer.endArray();
+    void writeJsonValue(JsonWriter writer, boolean includeTypes,
+                        ArrayEncoding arrays) throws IOException {
+      arrays.write(writer, v);
     }
 
     /**
@@ -0,0 +1,246 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import java.awt.image.IndexColorModel;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a 24 bit RGB or 8 bit palette PNG one scanline at a time. The
+ * scanlines go through a deflater straight into IDAT chunks, so the image
+ * never needs to be in memory at once, which lets us write images much
+ * larger than the heap.
+ */
+class PngWriter implements Closeable {
+  private static final byte[] SIGNATURE =
+      {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+  private static final int IDAT_SIZE = 64 * 1024;
+  private static final int BYTES_PER_PIXEL = 3;
+  private static final byte COLOR_TYPE_RGB = 2;
+  private static final byte COLOR_TYPE_PALETTE = 3;
+  private static final int FILTER_NONE = 0;
+  private static final int FILTER_SUB = 1;
+  private static final int FILTER_UP = 2;
+
+  private final DataOutputStream out;
+  private final int width;
+  private final int height;
+  private final boolean indexed;
+  private final Deflater deflater = new Deflater();
+  private final DeflaterOutputStream idat;
+  private byte[] row;
+  private byte[] previous;
+  private final byte[] filtered;
+  private int rows = 0;
+
+  /**
+   * Start a PNG and write its header.
+   * @param out the stream to write to, which is closed by close()
+   * @param width the width in pixels
+   * @param height the height in pixels
+   */
+  PngWriter(OutputStream out, int width, int height) throws IOException {
+    this(out, width, height, null);
+  }
+
+  /**
+   * Start a PNG and write its header.
+   * @param out the stream to write to, which is closed by close()
+   * @param width the width in pixels
+   * @param height the height in pixels
+   * @param palette the colors of an 8 bit palette image or null for RGB
+   */
+  PngWriter(OutputStream out, int width, int height,
+            IndexColorModel palette) throws IOException {
+    this.out = new DataOutputStream(out);
+    this.width = width;
+    this.height = height;
+    indexed = palette != null;
+    int rowBytes = palette == null ? width * BYTES_PER_PIXEL : width;
+    row = new byte[rowBytes];
+    previous = new byte[rowBytes];
+    filtered = new byte[rowBytes];
+    this.out.write(SIGNATURE);
+    ByteBuffer header = ByteBuffer.allocate(13);
+    header.putInt(width);
+    header.putInt(height);
+    header.put((byte) 8);   // bit depth
+    header.put(palette == null ? COLOR_TYPE_RGB : COLOR_TYPE_PALETTE);
+    header.put((byte) 0);   // compression: deflate
+    header.put((byte) 0);   // filter: adaptive
+    header.put((byte) 0);   // interlace: none
+    writeChunk("IHDR", header.array(), header.position());
+    if (palette != null) {
+      byte[] colors = new byte[palette.getMapSize() * BYTES_PER_PIXEL];
+      for(int i=0; i < palette.getMapSize(); ++i) {
+        colors[BYTES_PER_PIXEL * i] = (byte) palette.getRed(i);
+        colors[BYTES_PER_PIXEL * i + 1] = (byte) palette.getGreen(i);
+        colors[BYTES_PER_PIXEL * i + 2] = (byte) palette.getBlue(i);
+      }
+      writeChunk("PLTE", colors, colors.length);
+    }
+    idat = new DeflaterOutputStream(new ChunkStream(), deflater, IDAT_SIZE);
+  }
+
+  /**
+   * Buffers the compressed data and cuts it into IDAT chunks.
+   */
+  private final class ChunkStream extends OutputStream {
+    private final byte[] buffer = new byte[IDAT_SIZE];
+    private int used = 0;
+
+    @Override
+    public void write(int b) throws IOException {
+      if (used == buffer.length) {
+        flush();
+      }
+      buffer[used++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+      while (length > 0) {
+        if (used == buffer.length) {
+          flush();
+        }
+        int size = Math.min(length, buffer.length - used);
+        System.arraycopy(b, offset, buffer, used, size);
+        used += size;
+        offset += size;
+        length -= size;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (used > 0) {
+        writeChunk("IDAT", buffer, used);
+        used = 0;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
+  private void writeChunk(String type, byte[] data,
+                          int length) throws IOException {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, 0, length);
+    out.writeInt(length);
+    out.write(typeBytes);
+    out.write(data, 0, length);
+    out.writeInt((int) crc.getValue());
+  }
+
+  /**
+   * Write the next scanline of a palette image. The specification suggests
+   * not filtering palette images, since the differences between indexes
+   * don't mean anything.
+   * @param pixels the palette indexes
+   * @param offset the index of the scanline's first pixel
+   */
+  void writeRow(byte[] pixels, int offset) throws IOException {
+    if (rows == height) {
+      throw new IOException("PNG already has all " + height + " rows");
+    }
+    if (!indexed) {
+      throw new IOException("Palette row written to an RGB PNG");
+    }
+    idat.write(FILTER_NONE);
+    idat.write(pixels, offset, width);
+    rows += 1;
+  }
+
+  /**
+   * Write the next scanline of an RGB image.
+   * @param pixels the colors as 0xRRGGBB
+   * @param offset the index of the scanline's first pixel
+   */
+  void writeRow(int[] pixels, int offset) throws IOException {
+    if (rows == height) {
+      throw new IOException("PNG already has all " + height + " rows");
+    }
+    if (indexed) {
+      throw new IOException("RGB row written to a palette PNG");
+    }
+    for(int x=0; x < width; ++x) {
+      int pixel = pixels[offset + x];
+      row[BYTES_PER_PIXEL * x] = (byte) (pixel >> 16);
+      row[BYTES_PER_PIXEL * x + 1] = (byte) (pixel >> 8);
+      row[BYTES_PER_PIXEL * x + 2] = (byte) pixel;
+    }
+    // pick the filter with the smallest sum of differences, which is the
+    // heuristic that the PNG specification suggests
+    long none = 0;
+    long sub = 0;
+    long up = 0;
+    for(int i=0; i < row.length; ++i) {
+      int left = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] : 0;
+      none += Math.abs((int) row[i]);
+      sub += Math.abs((int) (byte) (row[i] - left));
+      up += Math.abs((int) (byte) (row[i] - previous[i]));
+    }
+    if (none <= sub && none <= up) {
+      idat.write(FILTER_NONE);
+      idat.write(row);
+    } else if (sub <= up) {
+      for(int i=0; i < row.length; ++i) {
+        int left = i >= BYTES_PER_PIXEL ? row[i - BYTES_PER_PIXEL] : 0;
+        filtered[i] = (byte) (row[i] - left);
+      }
+      idat.write(FILTER_SUB);
+      idat.write(filtered);
+    } else {
+      for(int i=0; i < row.length; ++i) {
+        filtered[i] = (byte) (row[i] - previous[i]);
+      }
+      idat.write(FILTER_UP);
+      idat.write(filtered);
+    }
+    byte[] swap = previous;
+    previous = row;
+    row = swap;
+    rows += 1;
+  }
+
+  /**
+   * Finish the image data and write the trailer.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (rows != height) {
+        throw new IOException("PNG has " + rows + " of " + height + " rows");
+      }
+      idat.close();
+      writeChunk("IEND", new byte[0], 0);
+    } finally {
+      deflater.end();
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.FormatException;
+import com.github.omalley.clotho.NBT.Minecraft.Chunk;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.github.omalley.clotho.MapMaker.CUBES_PER_CHUNK;
+
+/**
+ * Renders chunks into one RegionTile per layer. Each chunk is decoded once
+ * and the result is shared by all of the layers. A renderer keeps scratch
+ * buffers between chunks, so each worker thread needs its own.
+ */
+class RegionRenderer {
+  private final List<RenderLayer> layers;
+  private final ChunkSurface surface;
+  private final int background;
+  private final int[] colors = new int[ChunkSurface.COLUMNS];
+  private final boolean preview;
+
+  RegionRenderer(BlockColors blockColors, List<RenderLayer> layers) {
+    this(blockColors, layers, false, -1);
+  }
+
+  /**
+   * @param preview only use the chunks' Biomes and HeightMap arrays
+   * @param ceiling the height to look down for the surface from below a
+   *                roof or -1 to use the top most colored block
+   */
+  RegionRenderer(BlockColors blockColors, List<RenderLayer> layers,
+                 boolean preview, int ceiling) {
+    this.layers = layers;
+    this.preview = preview;
+    surface = new ChunkSurface(blockColors, ceiling);
+    background = blockColors.getRGB(0, 0);
+  }
+
+  /**
+   * Draw a chunk into the tile of each layer.
+   * @param chunk the chunk to draw
+   * @param tiles the tiles to draw into in the same order as the layers
+   * @param xChunk the chunk's x position within the region
+   * @param zChunk the chunk's z position within the region
+   */
+  void drawChunk(Chunk chunk, RegionTile[] tiles, int xChunk,
+                 int zChunk) throws FormatException {
+    if (preview) {
+      surface.scanHeightMap(chunk);
+    } else {
+      surface.scan(chunk);
+    }
+    int offset = CUBES_PER_CHUNK * (zChunk * RegionTile.SIZE + xChunk);
+    for(int layer=0; layer < tiles.length; ++layer) {
+      layers.get(layer).drawChunk(surface, colors);
+      RegionTile tile = tiles[layer];
+      for(int z=0; z < CUBES_PER_CHUNK; z++) {
+        int row = offset + z * RegionTile.SIZE;
+        System.arraycopy(colors, z * CUBES_PER_CHUNK, tile.pixels, row,
+            CUBES_PER_CHUNK);
+        for(int x=0; x < CUBES_PER_CHUNK; x++) {
+          int column = z * CUBES_PER_CHUNK + x;
+          tile.heights[row + x] = (byte) Math.max(0, surface.heights[column]);
+          tile.colors[row + x] = (byte) surface.baseColors[column];
+        }
+      }
+    }
+  }
+
+  /**
+   * Reset a chunk in each tile to the background.
+   */
+  void clearChunk(RegionTile[] tiles, int xChunk, int zChunk) {
+    int offset = CUBES_PER_CHUNK * (zChunk * RegionTile.SIZE + xChunk);
+    for(RegionTile tile: tiles) {
+      for(int z=0; z < CUBES_PER_CHUNK; z++) {
+        int row = offset + z * RegionTile.SIZE;
+        Arrays.fill(tile.pixels, row, row + CUBES_PER_CHUNK, background);
+        Arrays.fill(tile.heights, row, row + CUBES_PER_CHUNK, (byte) 0);
+        Arrays.fill(tile.colors, row, row + CUBES_PER_CHUNK, (byte) 0);
+      }
+    }
+  }
+
+  /**
+   * Pick the color variant depending on the height. These values were picked
+   * by finding the quartiles of the surface level in a large map built by
+   * the default generator.
+   * @param y the elevation
+   * @return 0, 1, 2, or 3 for the map color variants
+   */
+  static int getColorVariant(int y) {
+    if (y <= 62) {
+      return 3;
+    } else if (y <= 68) {
+      return 0;
+    } else if (y <= 74) {
+      return 1;
+    } else {
+      return 2;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+/**
+ * The rendered pixels for one region, one pixel per block column and
+ * without any grid lines. Each worker renders into its own tile, which are
+ * then composed into the output.
+ */
+class RegionTile {
+  static final int SIZE = MapMaker.CUBES_PER_CHUNK * MapMaker.CHUNKS_PER_REGION;
+
+  final int x;
+  final int z;
+  /**
+   * The colors as 0xRRGGBB indexed by z * SIZE + x.
+   */
+  final int[] pixels = new int[SIZE * SIZE];
+  /**
+   * The height of the colored block in each column, indexed like pixels.
+   */
+  final byte[] heights = new byte[SIZE * SIZE];
+  /**
+   * The base map color of the colored block in each column, indexed like
+   * pixels, so that layers can shade the region again once its neighbors
+   * are known.
+   */
+  final byte[] colors = new byte[SIZE * SIZE];
+
+  RegionTile(int x, int z) {
+    this.x = x;
+    this.z = z;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The saved rendering of a region along with the region's chunk timestamps
+ * when it was rendered. On the next run only the chunks whose timestamps
+ * changed need to be decoded again. The file is a deflated stream of:
+ * <pre>
+ *   int version
+ *   int signature of the layer and block colors
+ *   int[1024] chunk timestamps
+ *   int[512 * 512] pixels
+ *   byte[512 * 512] heights
+ *   byte[512 * 512] base colors
+ * </pre>
+ */
+class RenderCache {
+  static final int VERSION = 2;
+  static final int CHUNKS =
+      MapMaker.CHUNKS_PER_REGION * MapMaker.CHUNKS_PER_REGION;
+
+  /**
+   * Get the cache file for a layer of a region.
+   * @param directory the cache directory
+   * @param layer the layer's name
+   * @param x the region's x coordinate
+   * @param z the region's z coordinate
+   * @return the file for the region's cache
+   */
+  static File getFile(File directory, String layer, int x, int z) {
+    return new File(directory, "r." + x + "." + z + "." + layer + ".cache");
+  }
+
+  /**
+   * Load a cached region into a tile.
+   * @param file the file to read
+   * @param signature the signature of the current layer
+   * @param tile the tile to fill in
+   * @return the timestamps of the cached chunks or null if there isn't a
+   *   usable cache, in which case the tile is unchanged
+   */
+  static int[] read(File file, int signature,
+                    RegionTile tile) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new InflaterInputStream(new FileInputStream(file))))) {
+      if (in.readInt() != VERSION || in.readInt() != signature) {
+        return null;
+      }
+      int[] timestamps = new int[CHUNKS];
+      for(int i=0; i < timestamps.length; ++i) {
+        timestamps[i] = in.readInt();
+      }
+      int[] pixels = new int[tile.pixels.length];
+      for(int i=0; i < pixels.length; ++i) {
+        pixels[i] = in.readInt();
+      }
+      byte[] heights = new byte[tile.heights.length];
+      in.readFully(heights);
+      byte[] colors = new byte[tile.colors.length];
+      in.readFully(colors);
+      System.arraycopy(pixels, 0, tile.pixels, 0, pixels.length);
+      System.arraycopy(heights, 0, tile.heights, 0, heights.length);
+      System.arraycopy(colors, 0, tile.colors, 0, colors.length);
+      return timestamps;
+    } catch (EOFException e) {
+      // a truncated cache is just rendered again
+      return null;
+    }
+  }
+
+  /**
+   * Save a rendered region. The cache is written to a temporary file and
+   * renamed, so an interrupted run never leaves a partial cache behind.
+   * @param file the file to write
+   * @param signature the signature of the current layer
+   * @param timestamps the timestamps of the rendered chunks
+   * @param tile the rendered region
+   */
+  static void write(File file, int signature, int[] timestamps,
+                    RegionTile tile) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new DeflaterOutputStream(new FileOutputStream(tmp))))) {
+      out.writeInt(VERSION);
+      out.writeInt(signature);
+      for(int timestamp: timestamps) {
+        out.writeInt(timestamp);
+      }
+      for(int pixel: tile.pixels) {
+        out.writeInt(pixel);
+      }
+      out.write(tile.heights);
+      out.write(tile.colors);
+    }
+    if (!tmp.renameTo(file)) {
+      // Windows won't rename over an existing file
+      if (!file.delete() || !tmp.renameTo(file)) {
+        throw new IOException("Can't rename " + tmp + " to " + file);
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+/**
+ * One view of the world, such as the surface colors or the biomes. Every
+ * layer in a render is fed from the same decode of each chunk, so adding
+ * layers doesn't read or decompress the world again. Layers are shared by
+ * all of the worker threads, so they must not keep state between calls.
+ */
+interface RenderLayer {
+
+  /**
+   * The name of the layer, which is used in the output file names.
+   */
+  String getName();
+
+  /**
+   * A hash of the layer's settings, so that cached renders can tell whether
+   * they were made the same way.
+   */
+  int getSignature();
+
+  /**
+   * Color the columns of a chunk.
+   * @param surface the decoded chunk
+   * @param colors filled in with 0xRRGGBB for each column indexed by
+   *               z * 16 + x
+   */
+  void drawChunk(ChunkSurface surface, int[] colors);
+
+  /**
+   * Are all of the layer's colors from the block colors' map palette, so
+   * that its image can be stored with 8 bit palette indexes?
+   */
+  boolean usesMapColors();
+
+  /**
+   * Does the layer look across chunk and region borders in
+   * {@link #finishRegion}? If so, each region waits for the regions to its
+   * north and west before it is finished.
+   */
+  boolean usesNeighbors();
+
+  /**
+   * Change a region's pixels after all of its chunks are drawn. The tile's
+   * pixels may come from a cache, so this must be computed only from the
+   * tile's heights and colors.
+   * @param tile the region's tile
+   * @param north the heights of the row just north of the region or null if
+   *              that region isn't rendered
+   * @param west the heights of the column just west of the region or null
+   *             if that region isn't rendered
+   */
+  void finishRegion(RegionTile tile, byte[] north, byte[] west);
+}
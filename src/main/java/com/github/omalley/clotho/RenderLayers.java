@@ -0,0 +1,531 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.Minecraft.ID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.omalley.clotho.ChunkSurface.COLUMNS;
+import static com.github.omalley.clotho.MapMaker.CUBES_PER_CHUNK;
+
+/**
+ * The built in render layers.
+ */
+final class RenderLayers {
+  static final String SURFACE = "surface";
+  static final String BIOME = "biome";
+  static final String HEIGHT = "height";
+  static final String NIGHT = "night";
+  static final String CAVE = "cave";
+  static final String DEPTH = "depth";
+  static final String HILLSHADE = "hillshade";
+  static final String PREVIEW = "preview";
+
+  /**
+   * The cave layer's height when the spec doesn't give one.
+   */
+  static final int DEFAULT_CAVE_Y = 32;
+
+  private RenderLayers() {
+    // no instances
+  }
+
+  /**
+   * Parse a comma separated list of layers. The cave layer takes the height
+   * to slice at as "cave:y".
+   * @param spec the list such as "surface,biome,cave:20"
+   * @param blockColors the colors for the layers that draw blocks
+   * @return the layers in the same order
+   */
+  static List<RenderLayer> parse(String spec, BlockColors blockColors) {
+    List<RenderLayer> result = new ArrayList<RenderLayer>();
+    List<String> names = new ArrayList<String>();
+    for(String part: spec.split(",")) {
+      String[] words = part.trim().split(":");
+      String name = words[0].toLowerCase();
+      RenderLayer layer;
+      if (CAVE.equals(name)) {
+        int y = words.length > 1 ? Integer.parseInt(words[1]) : DEFAULT_CAVE_Y;
+        if (y < 0 || y > 255) {
+          throw new IllegalArgumentException("Bad cave height " + y);
+        }
+        layer = new CaveLayer(blockColors, y);
+      } else if (words.length > 1) {
+        throw new IllegalArgumentException("Layer " + name +
+            " doesn't take a value");
+      } else if (SURFACE.equals(name)) {
+        layer = new SurfaceLayer(blockColors);
+      } else if (BIOME.equals(name)) {
+        layer = new BiomeLayer(blockColors);
+      } else if (HEIGHT.equals(name)) {
+        layer = new HeightLayer(blockColors);
+      } else if (NIGHT.equals(name)) {
+        layer = new NightLayer(blockColors);
+      } else if (DEPTH.equals(name)) {
+        layer = new DepthLayer(blockColors);
+      } else if (HILLSHADE.equals(name)) {
+        layer = new HillshadeLayer(blockColors);
+      } else if (PREVIEW.equals(name)) {
+        layer = new PreviewLayer(blockColors);
+      } else {
+        throw new IllegalArgumentException("Unknown layer " + name);
+      }
+      if (names.contains(layer.getName())) {
+        throw new IllegalArgumentException("Duplicate layer " + name);
+      }
+      names.add(layer.getName());
+      result.add(layer);
+    }
+    return result;
+  }
+
+  /**
+   * Make a gray with the given brightness.
+   */
+  static int gray(int level) {
+    return level << 16 | level << 8 | level;
+  }
+
+  /**
+   * Scale the brightness of a color.
+   * @param rgb the color as 0xRRGGBB
+   * @param numerator the scale's numerator
+   * @param denominator the scale's denominator
+   */
+  static int scale(int rgb, int numerator, int denominator) {
+    int red = ((rgb >> 16) & 0xff) * numerator / denominator;
+    int green = ((rgb >> 8) & 0xff) * numerator / denominator;
+    int blue = (rgb & 0xff) * numerator / denominator;
+    return red << 16 | green << 8 | blue;
+  }
+
+  /**
+   * Mix two colors.
+   * @param from the color at 0
+   * @param to the color at the denominator
+   * @param numerator how far to go from the first color to the second
+   * @param denominator the scale's denominator
+   */
+  static int blend(int from, int to, int numerator, int denominator) {
+    return scale(from, denominator - numerator, denominator) +
+        scale(to, numerator, denominator);
+  }
+
+  private abstract static class Layer implements RenderLayer {
+    final BlockColors blockColors;
+    final int background;
+
+    Layer(BlockColors blockColors) {
+      this.blockColors = blockColors;
+      background = blockColors.getRGB(0, 0);
+    }
+
+    @Override
+    public int getSignature() {
+      return getName().hashCode() * 31 + blockColors.getSignature();
+    }
+
+    @Override
+    public boolean usesMapColors() {
+      return false;
+    }
+
+    @Override
+    public boolean usesNeighbors() {
+      return false;
+    }
+
+    @Override
+    public void finishRegion(RegionTile tile, byte[] north, byte[] west) {
+      // most layers are done after drawing their chunks
+    }
+
+    /**
+     * The color of the top colored block in a column.
+     */
+    int getSurfaceColor(ChunkSurface surface, int column) {
+      int height = surface.heights[column];
+      return height < 0 ? background :
+          blockColors.getRGB(surface.baseColors[column],
+              RegionRenderer.getColorVariant(height));
+    }
+  }
+
+  /**
+   * The top colored block with a brightness that depends on its height.
+   */
+  static class SurfaceLayer extends Layer {
+    SurfaceLayer(BlockColors blockColors) {
+      super(blockColors);
+    }
+
+    @Override
+    public boolean usesMapColors() {
+      return true;
+    }
+
+    @Override
+    public String getName() {
+      return SURFACE;
+    }
+
+    @Override
+    public void drawChunk(ChunkSurface surface, int[] colors) {
+      for(int column=0; column < COLUMNS; ++column) {
+        colors[column] = getSurfaceColor(surface, column);
+      }
+    }
+  }
+
+  /**
+   * The biome of each column.
+   */
+  static class BiomeLayer extends Layer {
+    /**
+     * The colors of the biomes by their id. The variants of biomes that
+     * have 128 added to their id are drawn a little lighter.
+     */
+    private static final int[] BIOME_COLORS = {
+        0x000070, // ocean
+        0x8db360, // plains
+        0xfa9418, // desert
+        0x606060, // extreme hills
+        0x056621, // forest
+        0x0b6659, // taiga
+        0x07f9b2, // swampland
+        0x0000ff, // river
+        0xff0000, // hell
+        0x8080ff, // sky
+        0x9090a0, // frozen ocean
+        0xa0a0ff, // frozen river
+        0xffffff, // ice plains
+        0xa0a0a0, // ice mountains
+        0xff00ff, // mushroom island
+        0xa000ff, // mushroom island shore
+        0xfade55, // beach
+        0xd25f12, // desert hills
+        0x22551c, // forest hills
+        0x163933, // taiga hills
+        0x72789a, // extreme hills edge
+        0x537b09, // jungle
+        0x2c4205, // jungle hills
+        0x628b17, // jungle edge
+        0x000030, // deep ocean
+        0xa2a284, // stone beach
+        0xfaf0c0, // cold beach
+        0x307444, // birch forest
+        0x1f5f32, // birch forest hills
+        0x40511a, // roofed forest
+        0x31554a, // cold taiga
+        0x243f36, // cold taiga hills
+        0x596651, // mega taiga
+        0x545f3e, // mega taiga hills
+        0x507050, // extreme hills+
+        0xbdb25f, // savanna
+        0xa79d64, // savanna plateau
+        0xd94515, // mesa
+        0xb09765, // mesa plateau f
+        0xca8c65, // mesa plateau
+    };
+    private static final int MUTATED = 128;
+
+    BiomeLayer(BlockColors blockColors) {
+      super(blockColors);
+    }
+
+    @Override
+    public String getName() {
+      return BIOME;
+    }
+
+    @Override
+    public void drawChunk(ChunkSurface surface, int[] colors) {
+      byte[] biomes = surface.chunk.getBiomes();
+      for(int column=0; column < COLUMNS; ++column) {
+        colors[column] = biomes == null || column >= biomes.length ?
+            background : getBiomeColor(biomes[column] & 0xff);
+      }
+    }
+
+    int getBiomeColor(int biome) {
+      if (biome < BIOME_COLORS.length) {
+        return BIOME_COLORS[biome];
+      } else if (biome >= MUTATED && biome - MUTATED < BIOME_COLORS.length) {
+        return blend(BIOME_COLORS[biome - MUTATED], 0xffffff, 1, 4);
+      }
+      // includes 255 for biomes that haven't been calculated
+      return background;
+    }
+  }
+
+  /**
+   * A quick look at the world from only the Biomes and HeightMap arrays,
+   * which are near the start of each chunk, so the sections never need to
+   * be decompressed or parsed. The biome color is darker in the valleys
+   * and brighter on the hills.
+   */
+  static class PreviewLayer extends BiomeLayer {
+    /**
+     * The height that the biome colors are drawn at unchanged.
+     */
+    private static final int FULL_HEIGHT = 128;
+    /**
+     * How much brightness is added to every height.
+     */
+    private static final int BIAS = 100;
+
+    PreviewLayer(BlockColors blockColors) {
+      super(blockColors);
+    }
+
+    @Override
+    public String getName() {
+      return PREVIEW;
+    }
+
+    @Override
+    public void drawChunk(ChunkSurface surface, int[] colors) {
+      super.drawChunk(surface, colors);
+      for(int column=0; column < COLUMNS; ++column) {
+        int height = surface.heights[column];
+        if (height < 0) {
+          colors[column] = background;
+        } else if (colors[column] != background) {
+          colors[column] = scale(colors[column],
+              Math.min(BIAS + height, BIAS + FULL_HEIGHT), BIAS + FULL_HEIGHT);
+        }
+      }
+    }
+  }
+
+  /**
+   * The height of the top colored block in each column as a gray from
+   * black at 0 to white at 255.
+   */
+  static class HeightLayer extends Layer {
+    HeightLayer(BlockColors blockColors) {
+      super(blockColors);
+    }
+
+    @Override
+    public String getName() {
+      return HEIGHT;
+    }
+
+    @Override
+    public void drawChunk(ChunkSurface surface, int[] colors) {
+      for(int column=0; column < COLUMNS; ++column) {
+        int height = surface.heights[column];
+        colors[column] = height < 0 ? background : gray(height);
+      }
+    }
+  }
+
+  /**
+   * The surface as it looks at night, when only the moon and the blocks
+   * that give off light brighten it.
+   */
+  static class NightLayer extends Layer {
+    /**
+     * The light level that the moon gives.
+     */
+    static final int MOON_LIGHT = 4;
+    static final int MAX_LIGHT = 15;
+
+    NightLayer(BlockColors blockColors) {
+      super(blockColors);
+    }
+
+    @Override
+    public String getName() {
+      return NIGHT;
+    }
+
+    @Override
+    public void drawChunk(ChunkSurface surface, int[] colors) {
+      for(int column=0; column < COLUMNS; ++column) {
+        int height = surface.heights[column];
+        if (height < 0) {
+          colors[column] = background;
+        } else {
+          // the light that reaches the top of the block
+          int light = height == 255 ? 0 :
+              surface.getBlockLight(column, height + 1);
+          colors[column] = scale(getSurfaceColor(surface, column),
+              Math.max(light, MOON_LIGHT), MAX_LIGHT);
+        }
+      }
+    }
+  }
+
+  /**
+   * A horizontal slice through the world. Solid blocks have their map
+   * color, caves are a light tan that stands out from the dark stone, and
+   * air that is open to the sky is the background.
+   */
+  static class CaveLayer extends Layer {
+    static final int CAVE_COLOR = 0xffd890;
+    private final int y;
+
+    CaveLayer(BlockColors blockColors, int y) {
+      super(blockColors);
+      this.y = y;
+    }
+
+    @Override
+    public String getName() {
+      return CAVE + y;
+    }
+
+    @Override
+    public void drawChunk(ChunkSurface surface, int[] colors) {
+      int variant = RegionRenderer.getColorVariant(y);
+      for(int column=0; column < COLUMNS; ++column) {
+        int color = blockColors.getBaseColor(surface.getBlockKey(column, y));
+        if (color != 0) {
+          colors[column] = blockColors.getRGB(color, variant);
+        } else if (surface.getSkyLight(column, y) == 0) {
+          colors[column] = CAVE_COLOR;
+        } else {
+          colors[column] = background;
+        }
+      }
+    }
+  }
+
+  /**
+   * The depth of the water from light blue when shallow to dark blue when
+   * deep. The land is drawn in gray so that the water stands out.
+   */
+  static class DepthLayer extends Layer {
+    static final int SHALLOW = 0x3f76e4;
+    static final int DEEP = 0x0a1a4a;
+    /**
+     * The depth that is drawn as the darkest blue.
+     */
+    static final int MAX_DEPTH = 32;
+
+    DepthLayer(BlockColors blockColors) {
+      super(blockColors);
+    }
+
+    @Override
+    public String getName() {
+      return DEPTH;
+    }
+
+    private static boolean isWater(int key) {
+      int id = key >> 4;
+      return id == ID.WATER.getId() || id == ID.FLOWING_WATER.getId();
+    }
+
+    @Override
+    public void drawChunk(ChunkSurface surface, int[] colors) {
+      for(int column=0; column < COLUMNS; ++column) {
+        int height = surface.heights[column];
+        if (height < 0) {
+          colors[column] = background;
+        } else if (isWater(surface.getBlockKey(column, height))) {
+          int depth = 1;
+          while (depth < MAX_DEPTH && height - depth >= 0 &&
+              isWater(surface.getBlockKey(column, height - depth))) {
+            depth += 1;
+          }
+          colors[column] = blend(SHALLOW, DEEP, depth - 1, MAX_DEPTH - 1);
+        } else {
+          int rgb = getSurfaceColor(surface, column);
+          colors[column] = gray((((rgb >> 16) & 0xff) * 3 +
+              ((rgb >> 8) & 0xff) * 6 + (rgb & 0xff)) / 10);
+        }
+      }
+    }
+  }
+
+  /**
+   * The surface shaded by its slope, as if lit from the north west. The
+   * slope comes from the heights of the columns to the north and west,
+   * which may be in other chunks or regions, so the shading is done once
+   * the whole region and the edges of its neighbors are known.
+   */
+  static class HillshadeLayer extends Layer {
+    HillshadeLayer(BlockColors blockColors) {
+      super(blockColors);
+    }
+
+    @Override
+    public boolean usesMapColors() {
+      return true;
+    }
+
+    @Override
+    public String getName() {
+      return HILLSHADE;
+    }
+
+    @Override
+    public void drawChunk(ChunkSurface surface, int[] colors) {
+      // the shading is added by finishRegion
+      for(int column=0; column < COLUMNS; ++column) {
+        colors[column] = getSurfaceColor(surface, column);
+      }
+    }
+
+    @Override
+    public boolean usesNeighbors() {
+      return true;
+    }
+
+    /**
+     * Pick the map color variant from the slope, going from 3 for the
+     * darkest through 0 and 1 to 2 for the brightest.
+     * @param slope the sum of the rises from the north and west neighbors
+     */
+    static int getShadeVariant(int slope) {
+      if (slope > 0) {
+        return 2;
+      } else if (slope == 0) {
+        return 1;
+      } else if (slope >= -2) {
+        return 0;
+      } else {
+        return 3;
+      }
+    }
+
+    @Override
+    public void finishRegion(RegionTile tile, byte[] north, byte[] west) {
+      int size = RegionTile.SIZE;
+      for(int z=0; z < size; ++z) {
+        for(int x=0; x < size; ++x) {
+          int index = z * size + x;
+          int color = tile.colors[index] & 0xff;
+          if (color == 0) {
+            tile.pixels[index] = background;
+            continue;
+          }
+          int height = tile.heights[index] & 0xff;
+          // missing neighbors are treated as level
+          int northHeight = z > 0 ? tile.heights[index - size] & 0xff :
+              north != null ? north[x] & 0xff : height;
+          int westHeight = x > 0 ? tile.heights[index - 1] & 0xff :
+              west != null ? west[z] & 0xff : height;
+          tile.pixels[index] = blockColors.getRGB(color,
+              getShadeVariant(2 * height - northHeight - westHeight));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,566 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import com.github.omalley.clotho.NBT.Minecraft.Chunk;
+import com.github.omalley.clotho.NBT.Minecraft.Region;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.omalley.clotho.MapMaker.CHUNKS_PER_REGION;
+
+/**
+ * Renders regions as a pipeline of stages connected by bounded queues, so
+ * that reading the files overlaps with the CPU work.
+ * <ol>
+ *   <li>A reader thread reads the compressed bytes of each chunk.</li>
+ *   <li>Workers on the pool inflate, parse, and color the chunks.</li>
+ *   <li>The calling thread composites the finished regions into the
+ *   sink.</li>
+ * </ol>
+ * The queues are bounded, so a slow stage makes the earlier ones wait
+ * instead of filling up memory. How busy each stage was is added to
+ * the {@link Stats}.
+ */
+class RenderPipeline {
+  /**
+   * The number of compressed chunks per worker that may wait for a worker.
+   */
+  static final int CHUNKS_PER_WORKER = 64;
+  /**
+   * The number of regions per worker that may be in flight at once.
+   */
+  static final int REGIONS_PER_WORKER = 2;
+
+  /**
+   * How much time each stage spent working and waiting.
+   */
+  static class Stats {
+    final AtomicLong regions = new AtomicLong();
+    final AtomicLong chunks = new AtomicLong();
+    final AtomicLong wallNanos = new AtomicLong();
+    final AtomicLong readNanos = new AtomicLong();
+    final AtomicLong readBlockedNanos = new AtomicLong();
+    final AtomicLong inflateNanos = new AtomicLong();
+    final AtomicLong parseNanos = new AtomicLong();
+    final AtomicLong renderNanos = new AtomicLong();
+    final AtomicLong workerIdleNanos = new AtomicLong();
+    final AtomicLong compositeNanos = new AtomicLong();
+    private int workers = 1;
+
+    /**
+     * Print the share of each stage's threads' time that it was busy.
+     */
+    void report(PrintStream out) {
+      long wall = Math.max(1, wallNanos.get());
+      out.printf("Rendered %d regions and %d chunks in %.2f s%n",
+          regions.get(), chunks.get(), wall / 1e9);
+      out.printf("  %-10s %7s %6s%n", "stage", "threads", "busy");
+      printStage(out, "read", 1, readNanos.get(), wall);
+      printStage(out, "inflate", workers, inflateNanos.get(), wall);
+      printStage(out, "parse", workers, parseNanos.get(), wall);
+      printStage(out, "render", workers, renderNanos.get(), wall);
+      printStage(out, "composite", 1, compositeNanos.get(), wall);
+      out.printf("  reader blocked on a full queue %.1f%%, workers idle " +
+              "waiting for chunks %.1f%%%n",
+          100.0 * readBlockedNanos.get() / wall,
+          100.0 * workerIdleNanos.get() / wall / workers);
+    }
+
+    private static void printStage(PrintStream out, String name,
+                                   int threads, long busy, long wall) {
+      out.printf("  %-10s %7d %5.1f%%%n", name, threads,
+          100.0 * busy / wall / threads);
+    }
+  }
+
+  /**
+   * A region that is going through the pipeline.
+   */
+  private static class PendingRegion {
+    /**
+     * The region's tile and cache file for each layer.
+     */
+    final RegionTile[] tiles;
+    final File[] caches;
+    final int[] timestamps;
+    final boolean fromCache;
+    /**
+     * The number of chunks still being worked on plus one for the reader
+     * until it has queued all of them.
+     */
+    final AtomicInteger pending = new AtomicInteger(1);
+    boolean changed = false;
+
+    PendingRegion(RegionTile[] tiles, File[] caches, int[] timestamps,
+                  boolean fromCache) {
+      this.tiles = tiles;
+      this.caches = caches;
+      this.timestamps = timestamps;
+      this.fromCache = fromCache;
+    }
+  }
+
+  /**
+   * A compressed chunk waiting for a worker.
+   */
+  private static class ChunkJob {
+    final PendingRegion region;
+    final int x;
+    final int z;
+    final byte[] raw;
+
+    ChunkJob(PendingRegion region, int x, int z, byte[] raw) {
+      this.region = region;
+      this.x = x;
+      this.z = z;
+      this.raw = raw;
+    }
+  }
+
+  /**
+   * The job that tells a worker to stop.
+   */
+  private static final ChunkJob DONE = new ChunkJob(null, 0, 0, null);
+
+  private final MapMaker.Settings settings;
+  private final int workers;
+  private final BlockingQueue<ChunkJob> chunks;
+  private final BlockingQueue<PendingRegion> finished;
+  private final Semaphore regionsInFlight;
+
+  RenderPipeline(MapMaker.Settings settings, int workers) {
+    this.settings = settings;
+    this.workers = workers;
+    chunks = new ArrayBlockingQueue<ChunkJob>(CHUNKS_PER_WORKER * workers);
+    // the reader never has more regions in flight than the permits
+    finished = new ArrayBlockingQueue<PendingRegion>(
+        REGIONS_PER_WORKER * workers);
+    regionsInFlight = new Semaphore(REGIONS_PER_WORKER * workers);
+    settings.stats.workers = workers;
+  }
+
+  /**
+   * Render the regions and send each one to the sinks.
+   * @param files the regions to render
+   * @param sinks a sink for each of the settings' layers in the same order
+   */
+  void run(final List<MapMaker.RegionFile> files,
+           List<? extends RegionSink> sinks) throws Exception {
+    long start = System.nanoTime();
+    List<Future<Void>> stages = new ArrayList<Future<Void>>(workers + 1);
+    FutureTask<Void> reader = new FutureTask<Void>(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        read(files);
+        return null;
+      }
+    });
+    Thread readerThread = new Thread(reader, "region-reader");
+    readerThread.setDaemon(true);
+    readerThread.start();
+    stages.add(reader);
+    for(int i=0; i < workers; ++i) {
+      stages.add(settings.pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          work();
+          return null;
+        }
+      }));
+    }
+    boolean usesNeighbors = false;
+    for(RenderLayer layer: settings.layers) {
+      usesNeighbors |= layer.usesNeighbors();
+    }
+    if (usesNeighbors) {
+      settings.edges.start(files);
+    }
+    // the regions that haven't been decoded yet
+    Set<Long> unread = new HashSet<Long>();
+    for(MapMaker.RegionFile file: files) {
+      unread.add(pack(file.x, file.z));
+    }
+    List<PendingRegion> waiting = new ArrayList<PendingRegion>();
+    try {
+      int done = 0;
+      while (done < files.size()) {
+        PendingRegion region = finished.poll(100, TimeUnit.MILLISECONDS);
+        if (region == null) {
+          checkStages(stages);
+          continue;
+        }
+        long begin = System.nanoTime();
+        RegionTile first = region.tiles[0];
+        unread.remove(pack(first.x, first.z));
+        if (!usesNeighbors) {
+          composite(region, sinks, null, null);
+          done += 1;
+        } else {
+          settings.edges.add(first);
+          waiting.add(region);
+          // finish the regions whose north and west neighbors are decoded
+          Iterator<PendingRegion> itr = waiting.iterator();
+          while (itr.hasNext()) {
+            PendingRegion ready = itr.next();
+            RegionTile tile = ready.tiles[0];
+            if (!unread.contains(pack(tile.x, tile.z - 1)) &&
+                !unread.contains(pack(tile.x - 1, tile.z))) {
+              composite(ready, sinks,
+                  settings.edges.takeSouth(tile.x, tile.z - 1),
+                  settings.edges.takeEast(tile.x - 1, tile.z));
+              itr.remove();
+              done += 1;
+            }
+          }
+        }
+        settings.stats.compositeNanos.addAndGet(System.nanoTime() - begin);
+      }
+      MapMaker.waitFor(stages);
+    } finally {
+      for(Future<Void> stage: stages) {
+        stage.cancel(true);
+      }
+      settings.stats.wallNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Finish a region's layers, save them in the cache, and pass them to the
+   * sinks.
+   */
+  private void composite(PendingRegion region,
+                         List<? extends RegionSink> sinks,
+                         byte[] north, byte[] west) throws IOException {
+    for(int layer=0; layer < sinks.size(); ++layer) {
+      RenderLayer renderLayer = settings.layers.get(layer);
+      renderLayer.finishRegion(region.tiles[layer], north, west);
+      if (region.caches != null && region.changed) {
+        RenderCache.write(region.caches[layer], renderLayer.getSignature(),
+            region.timestamps, region.tiles[layer]);
+      }
+      sinks.get(layer).drawRegion(region.tiles[layer]);
+    }
+    regionsInFlight.release();
+  }
+
+  static long pack(int x, int z) {
+    return ((long) x << 32) | (z & 0xffffffffL);
+  }
+
+  /**
+   * The heights along the south and east edges of the decoded regions,
+   * which the layers that shade across region borders need to finish the
+   * regions next to them. An edge is only kept while a region of the
+   * render, or of the next band of a streamed render, may still take it,
+   * so only the edges along the front of the render are kept.
+   */
+  static class Edges {
+    private final Map<Long, byte[]> south = new HashMap<Long, byte[]>();
+    private final Map<Long, byte[]> east = new HashMap<Long, byte[]>();
+    /**
+     * The regions of the current render.
+     */
+    private Set<Long> regions = new HashSet<Long>();
+    /**
+     * The southern most row of the current render, whose south edges the
+     * next band of a streamed render takes.
+     */
+    private int lastRow = Integer.MIN_VALUE;
+
+    /**
+     * Start rendering a set of regions, dropping the edges left by earlier
+     * renders that none of them borders.
+     */
+    void start(List<MapMaker.RegionFile> files) {
+      regions = new HashSet<Long>();
+      lastRow = Integer.MIN_VALUE;
+      for(MapMaker.RegionFile file: files) {
+        regions.add(pack(file.x, file.z));
+        lastRow = Math.max(lastRow, file.z);
+      }
+      Iterator<Long> itr = south.keySet().iterator();
+      while (itr.hasNext()) {
+        long key = itr.next();
+        if (!regions.contains(pack((int) (key >> 32), (int) key + 1))) {
+          itr.remove();
+        }
+      }
+      east.clear();
+    }
+
+    void add(RegionTile tile) {
+      int size = RegionTile.SIZE;
+      if (tile.z == lastRow || regions.contains(pack(tile.x, tile.z + 1))) {
+        byte[] bottom = new byte[size];
+        System.arraycopy(tile.heights, (size - 1) * size, bottom, 0, size);
+        south.put(pack(tile.x, tile.z), bottom);
+      }
+      if (regions.contains(pack(tile.x + 1, tile.z))) {
+        byte[] right = new byte[size];
+        for(int z=0; z < size; ++z) {
+          right[z] = tile.heights[z * size + size - 1];
+        }
+        east.put(pack(tile.x, tile.z), right);
+      }
+    }
+
+    /**
+     * Get the heights along the south edge of a region.
+     * @return the heights or null if the region wasn't rendered
+     */
+    byte[] takeSouth(int x, int z) {
+      return south.remove(pack(x, z));
+    }
+
+    /**
+     * Get the heights along the east edge of a region.
+     * @return the heights or null if the region wasn't rendered
+     */
+    byte[] takeEast(int x, int z) {
+      return east.remove(pack(x, z));
+    }
+  }
+
+  /**
+   * Rethrow the failure of any stage that died, since the others would
+   * wait for it forever.
+   */
+  private static void checkStages(List<Future<Void>> stages) throws Exception {
+    for(Future<Void> stage: stages) {
+      if (stage.isDone()) {
+        try {
+          stage.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception) {
+            throw (Exception) e.getCause();
+          }
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * The reader stage: decide which chunks of each region need rendering and
+   * queue their compressed bytes.
+   */
+  private void read(List<MapMaker.RegionFile> files) throws Exception {
+    // go row by row, so each region's north and west neighbors come first
+    files = new ArrayList<MapMaker.RegionFile>(files);
+    Collections.sort(files, new Comparator<MapMaker.RegionFile>() {
+      @Override
+      public int compare(MapMaker.RegionFile left, MapMaker.RegionFile right) {
+        return left.z != right.z ? Integer.compare(left.z, right.z) :
+            Integer.compare(left.x, right.x);
+      }
+    });
+    Bounds bounds = settings.bounds;
+    List<RenderLayer> layers = settings.layers;
+    RegionRenderer renderer =
+        new RegionRenderer(settings.blockColors, layers);
+    for(MapMaker.RegionFile file: files) {
+      startRegion();
+      long begin = System.nanoTime();
+      Region region = new Region(file.filename);
+      int[] timestamps = region.ReadTimestamps();
+      RegionTile[] tiles = new RegionTile[layers.size()];
+      for(int layer=0; layer < tiles.length; ++layer) {
+        tiles[layer] = new RegionTile(file.x, file.z);
+      }
+      File[] caches = null;
+      int[] cached = null;
+      if (settings.cacheDirectory != null) {
+        caches = new File[tiles.length];
+        cached = readCaches(file, tiles, caches);
+      }
+      PendingRegion pending = new PendingRegion(tiles, caches, timestamps,
+          cached != null);
+      boolean[] wanted = new boolean[CHUNKS_PER_REGION * CHUNKS_PER_REGION];
+      // a chunk that is missing both now and in the cache is unchanged
+      for(int z=0; z < CHUNKS_PER_REGION; ++z) {
+        for(int x=0; x < CHUNKS_PER_REGION; ++x) {
+          int index = z * CHUNKS_PER_REGION + x;
+          if (bounds != null &&
+              !bounds.containsChunk(file.x * CHUNKS_PER_REGION + x,
+                  file.z * CHUNKS_PER_REGION + z)) {
+            // keep what the cache had, so a later run renders it if needed
+            timestamps[index] = cached == null ? 0 : cached[index];
+          } else if (cached == null || timestamps[index] != cached[index]) {
+            wanted[index] = true;
+            pending.changed = true;
+          }
+        }
+      }
+      byte[][] raw = region.ReadRawChunks(wanted);
+      settings.stats.readNanos.addAndGet(System.nanoTime() - begin);
+      for(int index=0; index < raw.length; ++index) {
+        int x = index % CHUNKS_PER_REGION;
+        int z = index / CHUNKS_PER_REGION;
+        if (raw[index] != null) {
+          pending.pending.incrementAndGet();
+          put(new ChunkJob(pending, x, z, raw[index]));
+        } else if (wanted[index] && pending.fromCache &&
+            cached[index] != 0) {
+          // the chunk was deleted since the cache was written
+          renderer.clearChunk(tiles, x, z);
+        }
+      }
+      settings.stats.regions.incrementAndGet();
+      finishChunk(pending);
+    }
+    for(int i=0; i < workers; ++i) {
+      put(DONE);
+    }
+  }
+
+  /**
+   * Load each layer's cache of a region.
+   * @param file the region
+   * @param tiles the layers' tiles to load the caches into
+   * @param caches filled in with the layers' cache files
+   * @return the timestamps of the cached chunks or null unless every layer
+   *   had a usable cache
+   */
+  private int[] readCaches(MapMaker.RegionFile file, RegionTile[] tiles,
+                           File[] caches) throws IOException {
+    for(int layer=0; layer < tiles.length; ++layer) {
+      caches[layer] = RenderCache.getFile(settings.cacheDirectory,
+          settings.layers.get(layer).getName(), file.x, file.z);
+    }
+    int[] result = null;
+    for(int layer=0; layer < tiles.length; ++layer) {
+      int[] timestamps = RenderCache.read(caches[layer],
+          settings.layers.get(layer).getSignature(), tiles[layer]);
+      if (timestamps == null) {
+        // start the layers that did load over, since every chunk is redrawn
+        for(int i=0; i < layer; ++i) {
+          tiles[i] = new RegionTile(file.x, file.z);
+        }
+        return null;
+      }
+      if (result == null) {
+        result = timestamps;
+      } else {
+        // a chunk is only current if every layer has the same timestamp
+        for(int i=0; i < result.length; ++i) {
+          if (result[i] != timestamps[i]) {
+            result[i] = 0;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Wait until the compositor has room for another region.
+   */
+  private void startRegion() throws InterruptedException {
+    long begin = System.nanoTime();
+    regionsInFlight.acquire();
+    settings.stats.readBlockedNanos.addAndGet(System.nanoTime() - begin);
+  }
+
+  /**
+   * Pass a job to the workers, waiting if they are behind.
+   */
+  private void put(ChunkJob job) throws InterruptedException {
+    long begin = System.nanoTime();
+    chunks.put(job);
+    settings.stats.readBlockedNanos.addAndGet(System.nanoTime() - begin);
+  }
+
+  /**
+   * The worker stage: inflate, parse, and color chunks until told to stop.
+   */
+  private void work() throws Exception {
+    RegionRenderer renderer = new RegionRenderer(settings.blockColors,
+        settings.layers, settings.preview, settings.getCeiling());
+    Stats stats = settings.stats;
+    long idle = 0;
+    long inflate = 0;
+    long parse = 0;
+    long render = 0;
+    try {
+      while (true) {
+        long begin = System.nanoTime();
+        ChunkJob job = chunks.take();
+        long took = System.nanoTime();
+        idle += took - begin;
+        if (job == DONE) {
+          break;
+        }
+        Chunk chunk;
+        if (settings.preview) {
+          // inflating and parsing are interleaved, so count both as parsing
+          chunk = Region.ParseRawChunk(job.raw, Chunk.BIOMES,
+              Chunk.HEIGHT_MAP);
+        } else {
+          byte[] nbt = Region.Inflate(job.raw);
+          long inflated = System.nanoTime();
+          inflate += inflated - took;
+          took = inflated;
+          chunk = nbt == null ? null : Region.ParseChunk(nbt);
+        }
+        long parsed = System.nanoTime();
+        parse += parsed - took;
+        if (chunk != null) {
+          renderer.drawChunk(chunk, job.region.tiles, job.x, job.z);
+          stats.chunks.incrementAndGet();
+        } else if (job.region.fromCache) {
+          renderer.clearChunk(job.region.tiles, job.x, job.z);
+        }
+        render += System.nanoTime() - parsed;
+        finishChunk(job.region);
+      }
+    } finally {
+      stats.workerIdleNanos.addAndGet(idle);
+      stats.inflateNanos.addAndGet(inflate);
+      stats.parseNanos.addAndGet(parse);
+      stats.renderNanos.addAndGet(render);
+    }
+  }
+
+  /**
+   * Mark one chunk of a region as done and pass the region to the
+   * compositor after the last one.
+   */
+  private void finishChunk(PendingRegion region) throws InterruptedException {
+    if (region.pending.decrementAndGet() == 0) {
+      finished.put(region);
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.omalley.clotho;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the map as a pyramid of 256x256 tiles in z/x/y.png files that
+ * slippy map viewers such as Leaflet can show. The most detailed zoom
+ * level has one pixel per block and each coarser level is built by
+ * shrinking the four tiles below it, so only a few tiles are in memory at
+ * once. A small index.html viewer is written next to the tiles.
+ */
+class TileOutput implements RegionSink {
+  static final int TILE_SIZE = 256;
+  static final int TILES_PER_REGION = RegionTile.SIZE / TILE_SIZE;
+  static final int CHUNKS_PER_TILE = TILE_SIZE / MapMaker.CUBES_PER_CHUNK;
+
+  private final File directory;
+  private final int maxZoom;
+  private final int minX;
+  private final int maxX;
+  private final int minZ;
+  private final int maxZ;
+  /**
+   * The tiles that have been written at the current zoom level, packed by
+   * pack(x, y).
+   */
+  private final Set<Long> written =
+      Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+  /**
+   * Create a tile pyramid for the tiles that overlap some chunks.
+   * @param directory the directory to put the tiles in
+   * @param bounds the chunks to cover
+   */
+  TileOutput(File directory, Bounds bounds) {
+    this.directory = directory;
+    this.minX = Bounds.floorDiv(bounds.minX, CHUNKS_PER_TILE);
+    this.maxX = Bounds.floorDiv(bounds.maxX, CHUNKS_PER_TILE);
+    this.minZ = Bounds.floorDiv(bounds.minZ, CHUNKS_PER_TILE);
+    this.maxZ = Bounds.floorDiv(bounds.maxZ, CHUNKS_PER_TILE);
+    // zoom out until everything fits in 2x2 tiles, since tiles -1 and 0
+    // never merge
+    int zoom = 0;
+    int x1 = this.minX, x2 = this.maxX, z1 = this.minZ, z2 = this.maxZ;
+    while (x2 - x1 > 1 || z2 - z1 > 1) {
+      x1 >>= 1;
+      x2 >>= 1;
+      z1 >>= 1;
+      z2 >>= 1;
+      zoom += 1;
+    }
+    maxZoom = zoom;
+  }
+
+  private static long pack(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+
+  private File getFile(int zoom, int x, int y) {
+    return new File(directory, zoom + File.separator + x + File.separator +
+        y + ".png");
+  }
+
+  private void writeTile(int zoom, int x, int y,
+                         BufferedImage image) throws IOException {
+    File file = getFile(zoom, x, y);
+    File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Can't create directory " + parent);
+    }
+    ImageIO.write(image, "png", file);
+    written.add(pack(x, y));
+  }
+
+  private static BufferedImage newTile() {
+    return new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+  }
+
+  private static int[] getPixels(BufferedImage image) {
+    return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+  }
+
+  /**
+   * Cut a rendered region into the tiles of the most detailed level.
+   */
+  @Override
+  public void drawRegion(RegionTile region) throws IOException {
+    for(int j=0; j < TILES_PER_REGION; ++j) {
+      for(int i=0; i < TILES_PER_REGION; ++i) {
+        int x = region.x * TILES_PER_REGION + i;
+        int y = region.z * TILES_PER_REGION + j;
+        if (x < minX || x > maxX || y < minZ || y > maxZ) {
+          continue;
+        }
+        BufferedImage tile = newTile();
+        int[] pixels = getPixels(tile);
+        for(int row=0; row < TILE_SIZE; ++row) {
+          System.arraycopy(region.pixels,
+              (j * TILE_SIZE + row) * RegionTile.SIZE + i * TILE_SIZE,
+              pixels, row * TILE_SIZE, TILE_SIZE);
+        }
+        writeTile(maxZoom, x, y, tile);
+      }
+    }
+  }
+
+  /**
+   * Build one tile from the up to four tiles below it by averaging each
+   * 2x2 block of pixels. Missing tiles are black.
+   */
+  private void shrink(int zoom, int x, int y) throws IOException {
+    BufferedImage result = newTile();
+    int[] pixels = getPixels(result);
+    int half = TILE_SIZE / 2;
+    for(int j=0; j < 2; ++j) {
+      for(int i=0; i < 2; ++i) {
+        File file = getFile(zoom + 1, 2 * x + i, 2 * y + j);
+        if (!file.exists()) {
+          continue;
+        }
+        BufferedImage child = ImageIO.read(file);
+        int[] source = child.getRGB(0, 0, TILE_SIZE, TILE_SIZE, null, 0,
+            TILE_SIZE);
+        for(int row=0; row < half; ++row) {
+          int dest = (j * half + row) * TILE_SIZE + i * half;
+          int src = 2 * row * TILE_SIZE;
+          for(int col=0; col < half; ++col) {
+            pixels[dest + col] = average(source[src + 2 * col],
+                source[src + 2 * col + 1],
+                source[src + TILE_SIZE + 2 * col],
+                source[src + TILE_SIZE + 2 * col + 1]);
+          }
+        }
+      }
+    }
+    writeTile(zoom, x, y, result);
+  }
+
+  private static int average(int a, int b, int c, int d) {
+    int red = ((a >> 16 & 0xff) + (b >> 16 & 0xff) + (c >> 16 & 0xff) +
+        (d >> 16 & 0xff) + 2) >> 2;
+    int green = ((a >> 8 & 0xff) + (b >> 8 & 0xff) + (c >> 8 & 0xff) +
+        (d >> 8 & 0xff) + 2) >> 2;
+    int blue = ((a & 0xff) + (b & 0xff) + (c & 0xff) + (d & 0xff) + 2) >> 2;
+    return red << 16 | green << 8 | blue;
+  }
+
+  /**
+   * Build the coarser zoom levels from the most detailed one and write the
+   * viewer. Must be called after all of the regions have been drawn.
+   * @param pool the workers to build the tiles with
+   */
+  void finish(ExecutorService pool) throws Exception {
+    for(int zoom = maxZoom - 1; zoom >= 0; --zoom) {
+      Set<Long> parents = new TreeSet<Long>();
+      for(long child: written) {
+        parents.add(pack((int) (child >> 32) >> 1, (int) child >> 1));
+      }
+      written.clear();
+      List<Future<Void>> results = new ArrayList<Future<Void>>();
+      for(final long parent: parents) {
+        final int level = zoom;
+        results.add(pool.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            shrink(level, (int) (parent >> 32), (int) parent);
+            return null;
+          }
+        }));
+      }
+      MapMaker.waitFor(results);
+    }
+    writeViewer();
+  }
+
+  private void writeViewer() throws IOException {
+    int scale = 1 << maxZoom;
+    try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+        new FileOutputStream(new File(directory, "index.html")),
+        StandardCharsets.UTF_8))) {
+      out.println("<!DOCTYPE html>");
+      out.println("<html>");
+      out.println("<head>");
+      out.println("<meta charset=\"utf-8\">");
+      out.println("<title>" + directory.getName() + "</title>");
+      out.println("<link rel=\"stylesheet\" " +
+          "href=\"https://unpkg.com/leaflet@1.9.4/dist/leaflet.css\">");
+      out.println("<script " +
+          "src=\"https://unpkg.com/leaflet@1.9.4/dist/leaflet.js\"></script>");
+      out.println("<style>html, body, #map { height: 100%; margin: 0; " +
+          "background: black; }</style>");
+      out.println("</head>");
+      out.println("<body>");
+      out.println("<div id=\"map\"></div>");
+      out.println("<script>");
+      out.println("// lng is the block x, lat is the block z and zoom " +
+          maxZoom + " has one pixel per block");
+      out.println("var crs = L.extend({}, L.CRS.Simple, {");
+      out.println("  transformation: new L.Transformation(1/" + scale +
+          ", 0, 1/" + scale + ", 0)");
+      out.println("});");
+      out.println("var map = L.map('map', {crs: crs, minZoom: 0, maxZoom: " +
+          (maxZoom + 2) + "});");
+      out.println("L.tileLayer('{z}/{x}/{y}.png', {tileSize: " + TILE_SIZE +
+          ", maxNativeZoom: " + maxZoom + ", noWrap: true}).addTo(map);");
+      out.println("map.fitBounds([[" + (minZ * TILE_SIZE) + ", " +
+          (minX * TILE_SIZE) + "], [" + ((maxZ + 1) * TILE_SIZE) + ", " +
+          ((maxX + 1) * TILE_SIZE) + "]]);");
+      out.println("var position = L.control({position: 'bottomleft'});");
+      out.println("position.onAdd = function() {");
+      out.println("  this.div = L.DomUtil.create('div');");
+      out.println("  this.div.style.background = 'white';");
+      out.println("  this.div.style.padding = '2px 4px';");
+      out.println("  return this.div;");
+      out.println("};");
+      out.println("position.addTo(map);");
+      out.println("map.on('mousemove', function(e) {");
+      out.println("  position.div.innerHTML = 'x ' + " +
+          "Math.floor(e.latlng.lng) + ', z ' + Math.floor(e.latlng.lat);");
+      out.println("});");
+      out.println("</script>");
+      out.println("</body>");
+      out.println("</html>");
+    }
+  }
+}